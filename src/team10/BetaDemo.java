@@ -37,7 +37,7 @@ public class BetaDemo {
 		final Navigation navigation = new Navigation(odometer);
 		final StringLauncher stringLauncher = new StringLauncher();
 		final Localization localization = new Localization (odometer, navigation);		
-		final Display lcdDisplay = new Display (odometer);
+		final Display lcdDisplay = new Display (odometer, navigation);
 		
 		
 		// Get data
@@ -0,0 +1,43 @@
+package team10;
+
+import lejos.hardware.Button;
+import team10.localization.Localization;
+import team10.navigation.Navigation;
+import team10.navigation.Odometer;
+import team10.navigation.RobotConfig;
+
+
+/**
+ * Wheel radius and wheel base calibration class, place the robot on a grid
+ * intersection heading along a line with a free square of 3 tiles on its left
+ * 
+ * @author Mathieu Tougas
+ * @version 1.0
+ * 
+ */
+public class Calibrate {
+	
+	public static void main(String[] args) {
+
+		// Instantiate objects
+		final Odometer odometer = new Odometer();
+		final Navigation navigation = new Navigation(odometer);
+		final Localization localization = new Localization (odometer, navigation);
+		
+		// Start odometry
+		odometer.start();
+		
+		// Drive the square and the spins, the result is saved for the next start
+		RobotConfig config = localization.calibrate();
+		if (config == null) {
+			System.out.println("Calibration failed");
+		}
+		else {
+			System.out.println("Radius: " + config.getWheelRadius());
+			System.out.println("Base: " + config.getWheelBase());
+		}
+		
+		while (Button.waitForAnyPress() != Button.ID_ESCAPE);
+		System.exit(0);
+	}
+}
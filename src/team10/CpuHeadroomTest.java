@@ -0,0 +1,110 @@
+package team10;
+
+import lejos.hardware.Button;
+import team10.navigation.Navigation;
+import team10.navigation.Odometer;
+
+
+/**
+ * CPU headroom testing class. A low priority probe thread counts loop
+ * iterations while the robot is idle, then during a square mission with the
+ * event-driven travelTo, then during the same mission with a reader spinning
+ * on the odometer like the previous travelTo did
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+public class CpuHeadroomTest {
+	private static final long IDLE_DURATION = 5000;
+	private static final int[] MISSION = {
+		(int) Navigation.convertTileToDistance(2), (int) Navigation.convertTileToDistance(0),
+		(int) Navigation.convertTileToDistance(2), (int) Navigation.convertTileToDistance(2),
+		(int) Navigation.convertTileToDistance(0), (int) Navigation.convertTileToDistance(2),
+		(int) Navigation.convertTileToDistance(0), (int) Navigation.convertTileToDistance(0)
+	};
+	private static volatile boolean probing;
+	private static volatile long probeCount;
+
+	public static void main(String[] args) {
+		Odometer odometer = new Odometer();
+		Navigation navigation = new Navigation(odometer);
+		odometer.start();
+		TestFixture.placeOnOrigin(odometer);
+
+		// Probe rate with only the odometer running
+		double idle = probe(null, null);
+		System.out.println("Idle " + (long) idle + "/s");
+
+		// Same mission, event-driven then with the busy reader
+		double event = probe(navigation, null);
+		System.out.println("Event " + percent(event, idle) + "%");
+		double polling = probe(navigation, odometer);
+		System.out.println("Polling " + percent(polling, idle) + "%");
+		System.out.println("Freed " + percent(event - polling, idle) + "%");
+		System.out.println("Mis " + odometer.getScheduler().getMissedDeadlines());
+
+		while (Button.waitForAnyPress() != Button.ID_ESCAPE);
+		System.exit(0);
+	}
+
+	/**
+	 *  Measure the probe rate while idling or running the mission
+	 *
+	 * 	@param Navigation navigation - runs the mission, null to idle
+	 * 	@param Odometer spin - spin a reader on this odometer, null for none
+	 *  @return double rate - probe iterations per second
+	 */
+	private static double probe(Navigation navigation, final Odometer spin) {
+		probeCount = 0;
+		probing = true;
+		Thread probe = new Thread() {
+			public void run() {
+				long count = 0;
+				while (probing) {
+					count++;
+				}
+				probeCount = count;
+			}
+		};
+		probe.setPriority(Thread.MIN_PRIORITY);
+
+		// Previous travelTo, re-reading the position until it arrives
+		TestFixture.BusyReader reader = new TestFixture.BusyReader() {
+			double read() {
+				return spin.getX() + spin.getY();
+			}
+		};
+
+		long start = System.nanoTime();
+		probe.start();
+		if (spin != null)
+			reader.start();
+
+		if (navigation == null) {
+			Navigation.wait(IDLE_DURATION/1000.0);
+		} else {
+			navigation.drive(MISSION);
+		}
+
+		reader.finish();
+		probing = false;
+		try {
+			probe.join();
+		} catch (InterruptedException e) {
+			// nothing to do, the threads stop by themselves
+		}
+		return probeCount/((System.nanoTime() - start)/1e9);
+	}
+
+	/**
+	 *  Ratio as a rounded percentage
+	 *
+	 * 	@param double rate
+	 * 	@param double reference
+	 *  @return long percent
+	 */
+	private static long percent(double rate, double reference) {
+		return Math.round(100*rate/reference);
+	}
+}
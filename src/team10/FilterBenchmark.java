@@ -0,0 +1,93 @@
+package team10;
+
+import java.util.Random;
+
+import lejos.hardware.Button;
+import team10.localization.DropoutFilter;
+import team10.localization.ExponentialFilter;
+import team10.localization.FilterChain;
+import team10.localization.HampelFilter;
+import team10.localization.MedianFilter;
+import team10.localization.SampleFilter;
+
+
+/**
+ * Filter stage benchmarking class. Runs each stage, and the chain of all of
+ * them, over recorded-like ultrasonic samples with spikes and dropouts, and
+ * prints the cost per sample after a warm up
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+public class FilterBenchmark {
+	private static final int SAMPLES = 4096;
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int ROUNDS = 50;
+	private static final int WINDOW = 5;
+	private static volatile float sink;
+
+	public static void main(String[] args) {
+		float[] samples = makeSamples();
+
+		String[] names = {"Drop", "EMA", "Med", "Hamp", "Chain"};
+		SampleFilter[] filters = {
+			new DropoutFilter(255, 20),
+			new ExponentialFilter(0.3f),
+			new MedianFilter(WINDOW),
+			new HampelFilter(WINDOW, 3),
+			new FilterChain(new DropoutFilter(255, 20), new HampelFilter(WINDOW, 3), new MedianFilter(3), new ExponentialFilter(0.3f))
+		};
+
+		for (int i = 0; i < filters.length; i++) {
+			run(filters[i], samples, WARMUP_ROUNDS);
+			long start = System.nanoTime();
+			run(filters[i], samples, ROUNDS);
+			double cost = (System.nanoTime() - start)/((double) ROUNDS*SAMPLES);
+			System.out.println(names[i] + " " + Math.round(cost) + " ns");
+		}
+
+		while (Button.waitForAnyPress() != Button.ID_ESCAPE);
+		System.exit(0);
+	}
+
+	/**
+	 *  Filter the samples a number of times
+	 *
+	 * 	@param SampleFilter filter
+	 * 	@param float[] samples
+	 * 	@param int rounds
+	 *  @return No return value
+	 */
+	private static void run(SampleFilter filter, float[] samples, int rounds) {
+		float sum = 0;
+		for (int round = 0; round < rounds; round++) {
+			filter.reset();
+			for (int i = 0; i < samples.length; i++)
+				sum += filter.filter(samples[i]);
+		}
+		// Keeps the loop from being optimized away
+		sink = sum;
+	}
+
+	/**
+	 *  Distances of a robot turning in front of a corner, in cm, with a spike
+	 *  or a lost echo now and then
+	 *
+	 *  @return float[] samples
+	 */
+	private static float[] makeSamples() {
+		Random random = new Random(10);
+		float[] samples = new float[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++) {
+			double angle = 2*Math.PI*i/256;
+			float distance = (float) (30/Math.max(0.2, Math.abs(Math.cos(angle))) + random.nextGaussian());
+			if (random.nextInt(20) == 0)
+				distance = 255;
+			else if (random.nextInt(30) == 0)
+				distance = random.nextFloat()*distance;
+			samples[i] = distance;
+		}
+		return samples;
+	}
+}
@@ -26,7 +26,7 @@ public class LocalizationTest {
 		final Odometer odometer = new Odometer();
 		final Navigation navigation = new Navigation(odometer);
 		final Localization localization = new Localization (odometer, navigation);
-		//final Display lcdDisplay = new Display (odometer);
+		//final Display lcdDisplay = new Display (odometer, navigation);
 		final StringLauncher stringLauncher = new StringLauncher();
 		
 		int fwd_corner = 1;
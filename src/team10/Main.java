@@ -1,12 +1,18 @@
 package team10;
 
+import java.io.File;
 import java.util.Map;
 import lejos.hardware.Button;
 import lejos.hardware.Sound;
 import team10.launcher.StringLauncher;
 import team10.localization.Localization;
+import team10.localization.PoseEstimator;
+import team10.navigation.GeofenceRegistry;
+import team10.navigation.GridPlanner;
+import team10.navigation.MotionExecutor;
 import team10.navigation.Navigation;
 import team10.navigation.Odometer;
+import team10.telemetry.TelemetryRecorder;
 import team10.wifi.WifiConnection;
 
 /**
@@ -22,7 +28,11 @@ public class Main {
 	private static final int TEAM_NUMBER = 10;
 	private static final boolean ENABLE_DEBUG_WIFI_PRINT = true;
 	
+	// TELEMETRY
+	private static final int TELEMETRY_FILES = 3;
+	
 	// NAVIGATION
+	private static final int GOAL_X = 5;
 	private static final double [][] CORNERS = {{Navigation.convertTileToDistance(0), Navigation.convertTileToDistance(0), 0.0},{Navigation.convertTileToDistance(10), Navigation.convertTileToDistance(0), Odometer.getRadAngle(90.0)}, {Navigation.convertTileToDistance(10), Navigation.convertTileToDistance(10), Odometer.getRadAngle(180.0)}, {Navigation.convertTileToDistance(0), Navigation.convertTileToDistance(10), Odometer.getRadAngle(270.0)}};
 	
 	private static Map data;
@@ -31,13 +41,19 @@ public class Main {
 		int fwdTeam = 0;
 		int defTeam = 0;
 
+		// Record the whole run, only the last runs are kept on the brick
+		TelemetryRecorder.startRotating(new File("."), "telemetry-", TELEMETRY_FILES);
+		
 		// Instantiate objects
 		final WifiConnection conn = new WifiConnection(SERVER_IP, TEAM_NUMBER, ENABLE_DEBUG_WIFI_PRINT);
 		final Odometer odometer = new Odometer();
+		odometer.setAdaptivePeriod(10, 40);
 		final Navigation navigation = new Navigation(odometer);
 		final StringLauncher stringLauncher = new StringLauncher();
 		final Localization localization = new Localization (odometer, navigation);
-		//final Display lcdDisplay = new Display (odometer);
+		final PoseEstimator estimator = new PoseEstimator(odometer);
+		odometer.addListener(estimator);
+		//final Display lcdDisplay = new Display (odometer, navigation);
 		
 		
 		// Get data
@@ -60,6 +76,8 @@ public class Main {
 				int disp_x = ((Long) data.get("bx")).intValue();
 				int disp_y = ((Long) data.get("by")).intValue();
 				String disp_orientation = (String) data.get("omega");
+				int def_zone_x = ((Long) data.get("w1")).intValue();
+				int def_zone_y = ((Long) data.get("w2")).intValue();
 				double [] initialPosition = CORNERS[fwd_corner-1];
 				int i = 0;
 				
@@ -71,8 +89,11 @@ public class Main {
 				odometer.start();
 				//lcdDisplay.start();
 				
-				// Do localization
+				// Do localization, then keep the estimate up to date while driving
 				localization.doLocalization(initialPosition);
+				estimator.reset();
+				estimator.setCorrectOdometer(true);
+				localization.startEstimator(estimator);
 				
 				// Go to Ball dispenser
 				switch (disp_orientation){
@@ -90,43 +111,68 @@ public class Main {
 					break;	
 				}
 				
-				// Go the the middle of the field
-				navigation.travelTo((Math.abs(initialPosition[0] - Navigation.convertTileToDistance(3))), Math.abs(initialPosition[1] - Navigation.convertTileToDistance(3)));
-				navigation.travelTo(Navigation.convertTileToDistance(5), Navigation.convertTileToDistance(5));
+				// Plan around the ball dispenser and the defender zone
+				GridPlanner planner = new GridPlanner();
+				planner.block(disp_x, disp_y);
+				blockDefenderZone(planner, def_zone_x, def_zone_y);
+				
+				// Ball dispenser approach
+				double dispX = Navigation.convertTileToDistance(disp_x);
+				double dispY = Navigation.convertTileToDistance(disp_y);
+				if (disp_orientation.equals("N")){
+					dispY += 15;
+				}
+				else if (disp_orientation.equals("S")){
+					dispY -= 15;
+				}
+				else if (disp_orientation.equals("W")){
+					dispX -= 15;
+				}
+				else {
+					dispX += 15;
+				}
+				
+				// Queue the legs, the next ones are planned while the robot moves
+				MotionExecutor executor = new MotionExecutor(navigation, odometer, planner);
+				executor.start();
+				GeofenceRegistry geofences = new GeofenceRegistry(odometer);
 				
 				// Shooting loop
 				while (i < 1){
-					// Lower Catapult
-					stringLauncher.lowerCatapult();
+					// Lower Catapult on the way, once within a tile of the dispenser
+					geofences.addCircle(dispX, dispY, Navigation.getTileSize(), true, new Runnable() {
+						public void run() {
+							stringLauncher.lowerCatapult();
+						}
+					});
 					
-					// Go in front of the ball dispenser
-					navigation.travelTo(Navigation.convertTileToDistance(xDest), Navigation.convertTileToDistance(yDest));
+					// Go in front of the ball dispenser, then to the ball dispenser
+					executor.goTo(xDest, yDest);
+					executor.followPath(new double[] {dispX, dispY});
 					
-					// Go to the ball dispenser
-					if (disp_orientation.equals("N")){
-						navigation.travelTo(Navigation.convertTileToDistance(disp_x), Navigation.convertTileToDistance(disp_y) + 15);
-					}
-					else if (disp_orientation.equals("S")){
-						navigation.travelTo(Navigation.convertTileToDistance(disp_x), Navigation.convertTileToDistance(disp_y) - 15);
-					}
-					else if (disp_orientation.equals("W")){
-						navigation.travelTo(Navigation.convertTileToDistance(disp_x) - 15, Navigation.convertTileToDistance(disp_y));
-					}
-					else {
-						navigation.travelTo(Navigation.convertTileToDistance(disp_x) + 15, Navigation.convertTileToDistance(disp_y));
-
-					}
 					// Beep to obtain ball
-					Sound.beep();
-					Navigation.wait(5.0);
+					executor.action(new Runnable() {
+						public void run() {
+							Sound.beep();
+							Navigation.wait(5.0);
+						}
+					});
 					
 					// Back off and go to shooting line
-					navigation.goForward(-10);
-					navigation.travelTo(Navigation.convertTileToDistance(5), Navigation.convertTileToDistance(4));
-					navigation.turn(Math.PI/2 - odometer.getTheta());
-					navigation.turn(Math.PI);
-					localization.correctBeforeShort();
-					stringLauncher.fire();
+					executor.goForward(-10);
+					executor.goTo(5, 4);
+					
+					// Drive onto the line facing the goal, the estimator corrects the position on the way
+					executor.travelTo(Navigation.convertTileToDistance(5), Navigation.convertTileToDistance(3));
+					MotionExecutor.MotionFuture shot = executor.action(new Runnable() {
+						public void run() {
+							// The catapult is lowered on the way, it should be done by now
+							while (!StringLauncher.catapultLowered)
+								Navigation.wait(0.1);
+							stringLauncher.fire();
+						}
+					});
+					shot.get();
 				}
 
 			}
@@ -143,22 +189,51 @@ public class Main {
 				odometer.start();
 				//lcdDisplay.start();
 				
-				// Do localization
+				// Do localization, then keep the estimate up to date while driving
 				localization.doLocalization(initialPosition);
-				
-				// Go the the middle of the field
-				navigation.travelTo((Math.abs(initialPosition[0] - Navigation.convertTileToDistance(3))), Math.abs(initialPosition[1] - Navigation.convertTileToDistance(3)));
-				navigation.travelTo(Navigation.convertTileToDistance(5), Navigation.convertTileToDistance(5));
+				estimator.reset();
+				estimator.setCorrectOdometer(true);
+				localization.startEstimator(estimator);
 				
 				// Go in front of the ball dispenser
-				navigation.travelTo(Navigation.convertTileToDistance(5), Navigation.convertTileToDistance(def_zone_y));
-				navigation.travelTo(Navigation.convertTileToDistance(5), Navigation.convertTileToDistance(def_zone_y-1));
+				MotionExecutor executor = new MotionExecutor(navigation, odometer, new GridPlanner());
+				executor.start();
+				int defenderLine = getDefenderLine(def_zone_y);
+				executor.goTo(GOAL_X, defenderLine + 1);
+				executor.followPath(new double[] {Navigation.convertTileToDistance(GOAL_X), Navigation.convertTileToDistance(defenderLine)}).get();
 			}
 			
 			while (Button.waitForAnyPress() != Button.ID_ESCAPE);
+			TelemetryRecorder.stopRecording();
 			System.exit(0);
 		} catch (Exception e) {
 			System.err.println("Error: " + e.getMessage());
 		} 
 	}
+	
+	/**
+	 *  Block the defender zone, for the forward to plan around it. The zone is
+	 *  w1 tiles wide, centred on the goal, and w2 tiles deep from the goal
+	 *  wall (y = 0), its front line included
+	 * 
+	 * 	@param GridPlanner planner
+	 * 	@param int width - w1, in tiles
+	 * 	@param int depth - w2, in tiles
+	 *  @return No return value
+	 *  @since 2.0
+	 */
+	private static void blockDefenderZone(GridPlanner planner, int width, int depth) {
+		planner.block(GOAL_X - width/2, 0, GOAL_X + width/2, getDefenderLine(depth));
+	}
+	
+	/**
+	 *  Get the front line of the defender zone, where the defender waits
+	 * 
+	 * 	@param int depth - w2, in tiles
+	 *  @return int y - in tiles
+	 *  @since 2.0
+	 */
+	private static int getDefenderLine(int depth) {
+		return depth - 1;
+	}
 }
@@ -0,0 +1,158 @@
+package team10;
+
+import lejos.hardware.Button;
+import team10.navigation.Pose;
+
+
+/**
+ * Odometer lock contention testing class, compares the update tick delay of
+ * the locked readers with the published pose snapshot
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+public class OdometerContentionTest {
+	private static final long PERIOD = 25;
+	private static final long DURATION = 10000;
+	private static final int READERS = 3;
+	private static final long DELAY_THRESHOLD = 1000000;
+
+	public static void main(String[] args) {
+
+		// Run both variants with the same busy readers
+		runVariant("Locked", new LockedSource());
+		runVariant("Snapshot", new SnapshotSource());
+
+		while (Button.waitForAnyPress() != Button.ID_ESCAPE);
+		System.exit(0);
+	}
+
+	/**
+	 *  Run the update loop against busy readers, print the delayed ticks
+	 *
+	 * 	@param String name - the name of the variant
+	 * 	@param Source source - the pose source to hammer
+	 *  @return No return value
+	 */
+	private static void runVariant(String name, final Source source) {
+		TestFixture.BusyReader[] readers = new TestFixture.BusyReader[READERS];
+
+		// Readers spin like travelTo, turnTo and backOff do
+		for (int i = 0; i < READERS; i++) {
+			readers[i] = new TestFixture.BusyReader() {
+				double read() {
+					return source.getX() + source.getY() + source.getTheta();
+				}
+			};
+			readers[i].start();
+		}
+
+		int ticks = 0;
+		int delayed = 0;
+		long maxDelay = 0;
+		long totalDelay = 0;
+		long end = System.currentTimeMillis() + DURATION;
+
+		while (System.currentTimeMillis() < end) {
+			long start = System.nanoTime();
+			source.update(0.1, 0.001);
+			long delay = System.nanoTime() - start;
+
+			ticks++;
+			totalDelay += delay;
+			if (delay > DELAY_THRESHOLD)
+				delayed++;
+			if (delay > maxDelay)
+				maxDelay = delay;
+
+			try {
+				Thread.sleep(PERIOD);
+			} catch (InterruptedException e) {
+				// nothing to do, keep ticking
+			}
+		}
+
+		for (TestFixture.BusyReader reader : readers)
+			reader.finish();
+
+		System.out.println(name);
+		System.out.println(" late " + delayed + "/" + ticks);
+		System.out.println(" avg " + (totalDelay / ticks / 1000) + "us");
+		System.out.println(" max " + (maxDelay / 1000) + "us");
+	}
+
+	/**
+	 * Pose source updated by the tick and read by the busy readers
+	 */
+	private static abstract class Source {
+		abstract void update(double distance, double angle);
+		abstract double getX();
+		abstract double getY();
+		abstract double getTheta();
+	}
+
+	/**
+	 * Previous odometer behaviour, every access takes the lock
+	 */
+	private static class LockedSource extends Source {
+		private final Object lock = new Object();
+		private double x, y, theta;
+
+		void update(double distance, double angle) {
+			synchronized (lock) {
+				theta += angle;
+				x += Math.cos(theta)*distance;
+				y += Math.sin(theta)*distance;
+			}
+		}
+
+		double getX() {
+			synchronized (lock) {
+				return x;
+			}
+		}
+
+		double getY() {
+			synchronized (lock) {
+				return y;
+			}
+		}
+
+		double getTheta() {
+			synchronized (lock) {
+				return theta;
+			}
+		}
+	}
+
+	/**
+	 * Current odometer behaviour, the tick publishes an immutable pose
+	 */
+	private static class SnapshotSource extends Source {
+		private final Object lock = new Object();
+		private double x, y, theta;
+		private volatile Pose pose = new Pose(0, 0, 0, System.nanoTime());
+
+		void update(double distance, double angle) {
+			synchronized (lock) {
+				theta += angle;
+				x += Math.cos(theta)*distance;
+				y += Math.sin(theta)*distance;
+				pose = new Pose(x, y, theta, System.nanoTime());
+			}
+		}
+
+		double getX() {
+			return pose.getX();
+		}
+
+		double getY() {
+			return pose.getY();
+		}
+
+		double getTheta() {
+			return pose.getTheta();
+		}
+	}
+}
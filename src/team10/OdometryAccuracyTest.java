@@ -0,0 +1,170 @@
+package team10;
+
+import team10.navigation.PoseIntegrator;
+
+
+/**
+ * Offline odometry accuracy testing class, integrates a synthetic tacho trace
+ * with every integration mode and update period and compares the end pose
+ * against the ground truth
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+public class OdometryAccuracyTest {
+	// Same robot constants as the odometer
+	private static final double WHEEL_RADIUS = 2.1;
+	private static final double WHEEL_BASE = 14.43;
+
+	private static final double ACCELERATION = 1000;
+	private static final double TRUTH_STEP = 0.00001;
+	private static final double ADAPTIVE_FULL_DIFF = 8.0;
+
+	// {duration (s), left speed (deg/s), right speed (deg/s)}
+	private static final double[][] TRACE = {
+		{2.0, 200, 200},
+		{1.5, 125, -125},
+		{3.0, 250, 150},
+		{1.0, -300, 300},
+		{2.0, 100, 300},
+		{1.0, 400, -400},
+		{2.0, 200, 200},
+		{0.5, 0, 0}
+	};
+
+	public static void main(String[] args) {
+		// Wheel angles sampled every millisecond, and the true end pose
+		double duration = 0;
+		for (double[] segment : TRACE)
+			duration += segment[0];
+		int samples = (int) (duration*1000) + 1;
+		double[] leftAngles = new double[samples];
+		double[] rightAngles = new double[samples];
+		double[] truth = simulate(leftAngles, rightAngles);
+
+		System.out.println("Mode     Period  Ticks  Pos(cm) Th(deg)");
+		for (PoseIntegrator.Mode mode : PoseIntegrator.Mode.values()) {
+			for (long period : new long[] { 10, 25, 50 }) {
+				print(mode, Long.toString(period), integrate(mode, period, period, leftAngles, rightAngles), truth);
+			}
+			print(mode, "10-50", integrate(mode, 10, 50, leftAngles, rightAngles), truth);
+		}
+	}
+
+	/**
+	 *  Drive the synthetic trace with acceleration ramps, fill the wheel angles
+	 *  and integrate the true pose with a very small step
+	 *
+	 * 	@param double[] leftAngles - left wheel angle in degrees for every ms
+	 * 	@param double[] rightAngles - right wheel angle in degrees for every ms
+	 *  @return double[] pose - the true end pose {x, y, theta}
+	 */
+	private static double[] simulate(double[] leftAngles, double[] rightAngles) {
+		double[] pose = new double[3];
+		double leftSpeed = 0, rightSpeed = 0;
+		double leftAngle = 0, rightAngle = 0;
+		double time = 0, segmentEnd = 0;
+		int sample = 0;
+
+		for (double[] segment : TRACE) {
+			segmentEnd += segment[0];
+			while (time < segmentEnd) {
+				leftSpeed = ramp(leftSpeed, segment[1]);
+				rightSpeed = ramp(rightSpeed, segment[2]);
+
+				double leftStep = leftSpeed*TRUTH_STEP;
+				double rightStep = rightSpeed*TRUTH_STEP;
+				double leftDist = Math.toRadians(leftStep)*WHEEL_RADIUS;
+				double rightDist = Math.toRadians(rightStep)*WHEEL_RADIUS;
+				double dTheta = (rightDist - leftDist)/WHEEL_BASE;
+				double distance = (rightDist + leftDist)/2;
+				pose[0] += Math.cos(pose[2] + dTheta/2)*distance;
+				pose[1] += Math.sin(pose[2] + dTheta/2)*distance;
+				pose[2] += dTheta;
+
+				leftAngle += leftStep;
+				rightAngle += rightStep;
+				time += TRUTH_STEP;
+
+				if (sample < leftAngles.length && time >= sample*0.001) {
+					leftAngles[sample] = leftAngle;
+					rightAngles[sample] = rightAngle;
+					sample++;
+				}
+			}
+		}
+		while (sample < leftAngles.length) {
+			leftAngles[sample] = leftAngle;
+			rightAngles[sample] = rightAngle;
+			sample++;
+		}
+		return pose;
+	}
+
+	/**
+	 *  Move a wheel speed towards its target at the motor acceleration
+	 *
+	 * 	@param double speed - current speed in deg/s
+	 * 	@param double target - target speed in deg/s
+	 *  @return double speed - the new speed
+	 */
+	private static double ramp(double speed, double target) {
+		double step = ACCELERATION*TRUTH_STEP;
+		if (speed < target)
+			return Math.min(target, speed + step);
+		return Math.max(target, speed - step);
+	}
+
+	/**
+	 *  Integrate the trace like the odometer does, from whole-degree tacho counts
+	 *
+	 * 	@param PoseIntegrator.Mode mode
+	 * 	@param long minPeriod - in ms
+	 * 	@param long maxPeriod - in ms, the period is fixed if equal to minPeriod
+	 * 	@param double[] leftAngles
+	 * 	@param double[] rightAngles
+	 *  @return double[] result - {x, y, theta, ticks}
+	 */
+	private static double[] integrate(PoseIntegrator.Mode mode, long minPeriod, long maxPeriod, double[] leftAngles, double[] rightAngles) {
+		double[] pose = new double[3];
+		long period = maxPeriod;
+		int lastLeft = 0, lastRight = 0;
+		int ticks = 0;
+
+		for (long time = period; time < leftAngles.length; time += period) {
+			int leftTacho = (int) leftAngles[(int) time];
+			int rightTacho = (int) rightAngles[(int) time];
+			double leftDist = Math.toRadians(leftTacho - lastLeft)*WHEEL_RADIUS;
+			double rightDist = Math.toRadians(rightTacho - lastRight)*WHEEL_RADIUS;
+			lastLeft = leftTacho;
+			lastRight = rightTacho;
+
+			PoseIntegrator.step(mode, pose, leftDist, rightDist, WHEEL_BASE);
+			ticks++;
+
+			// Same rule as the odometer adaptive period
+			if (minPeriod != maxPeriod) {
+				double speedDiff = Math.abs(rightDist - leftDist)*1000/period;
+				double ratio = Math.min(1.0, speedDiff/ADAPTIVE_FULL_DIFF);
+				period = Math.round(maxPeriod - (maxPeriod - minPeriod)*ratio);
+			}
+		}
+		return new double[] { pose[0], pose[1], pose[2], ticks };
+	}
+
+	/**
+	 *  Print the end pose error of one run
+	 *
+	 * 	@param PoseIntegrator.Mode mode
+	 * 	@param String period - the period label
+	 * 	@param double[] result - {x, y, theta, ticks}
+	 * 	@param double[] truth - {x, y, theta}
+	 *  @return No return value
+	 */
+	private static void print(PoseIntegrator.Mode mode, String period, double[] result, double[] truth) {
+		double positionError = Math.hypot(result[0] - truth[0], result[1] - truth[1]);
+		double thetaError = Math.toDegrees(Math.abs(Math.IEEEremainder(result[2] - truth[2], 2*Math.PI)));
+		System.out.println(String.format("%-8s %6s %6d %8.3f %7.3f", mode, period, (int) result[3], positionError, thetaError));
+	}
+}
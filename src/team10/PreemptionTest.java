@@ -0,0 +1,64 @@
+package team10;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import lejos.hardware.Button;
+import team10.navigation.GridPlanner;
+import team10.navigation.MotionExecutor;
+import team10.navigation.MotionExecutor.MotionFuture;
+import team10.navigation.Navigation;
+import team10.navigation.Odometer;
+
+
+/**
+ * Preemption testing class. The robot drives back and forth between two
+ * intersections while a watcher thread preempts the motion after random
+ * delays, to measure how long the wheels take to stop once cancelled
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+public class PreemptionTest {
+	private static final int RUNS = 10;
+	private static final double MIN_DELAY = 0.5;
+	private static final double MAX_DELAY = 2.0;
+
+	public static void main(String[] args) {
+		Odometer odometer = new Odometer();
+		Navigation navigation = new Navigation(odometer);
+		MotionExecutor executor = new MotionExecutor(navigation, odometer, new GridPlanner());
+		odometer.start();
+		executor.start();
+		TestFixture.placeOnOrigin(odometer);
+
+		for (int i = 0; i < RUNS; i++) {
+			// Back and forth, the goal alternates so that every run moves
+			MotionFuture motion = executor.travelTo(Navigation.convertTileToDistance(i % 2 == 0 ? 3 : 0), Navigation.convertTileToDistance(0));
+			Navigation.wait(MIN_DELAY + Math.random()*(MAX_DELAY - MIN_DELAY));
+			executor.preempt();
+			try {
+				motion.get();
+				System.out.println(i + ": arrived");
+			} catch (CancellationException e) {
+				// the future is done at once, the wheels stop within a tick
+				try {
+					motion.awaitStopped();
+				} catch (InterruptedException e1) {
+					// print what is known so far
+				}
+				System.out.println(i + ": " + motion.getToken().getReactionLatency() + "ms");
+			} catch (InterruptedException | ExecutionException e) {
+				System.err.println("Error: " + e.getMessage());
+			}
+		}
+
+		System.out.println("Preempted " + navigation.getPreemptionCount());
+		System.out.println("Mean " + navigation.getMeanReactionLatency() + "ms");
+		System.out.println("Max " + navigation.getMaxReactionLatency() + "ms");
+
+		while (Button.waitForAnyPress() != Button.ID_ESCAPE);
+		System.exit(0);
+	}
+}
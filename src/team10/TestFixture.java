@@ -0,0 +1,74 @@
+package team10;
+
+import lejos.hardware.Button;
+import team10.navigation.Navigation;
+import team10.navigation.Odometer;
+
+
+/**
+ * Shared setup of the on-robot testing classes
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+final class TestFixture {
+
+	private TestFixture() {
+	}
+
+	/**
+	 *  Set the odometer on the first intersection and wait for the robot to
+	 *  be placed there
+	 *
+	 * 	@param Odometer odometer
+	 *  @return No return value
+	 */
+	static void placeOnOrigin(Odometer odometer) {
+		odometer.setX(Navigation.convertTileToDistance(0));
+		odometer.setY(Navigation.convertTileToDistance(0));
+
+		System.out.println("Place on (1,1)");
+		System.out.println("facing +x, ENTER");
+		while (Button.waitForAnyPress() != Button.ID_ENTER);
+	}
+
+	/**
+	 * Reader spinning on a position, like the polling loops did before the
+	 * odometer could be waited on
+	 */
+	abstract static class BusyReader extends Thread {
+		private volatile boolean running = true;
+
+		/**
+		 *  Read the position once
+		 *
+		 *  @return double value - anything read, so the reads are not optimised away
+		 */
+		abstract double read();
+
+		public void run() {
+			double sum = 0;
+			while (running) {
+				sum += read();
+			}
+			if (sum == Double.MIN_VALUE)
+				System.out.println(sum);
+		}
+
+		/**
+		 *  Stop spinning and wait for the reader to end
+		 *
+		 *  @return No return value
+		 */
+		void finish() {
+			running = false;
+			try {
+				if (isAlive())
+					join();
+			} catch (InterruptedException e) {
+				// nothing to do, the reader stops by itself
+			}
+		}
+	}
+}
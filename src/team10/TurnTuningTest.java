@@ -0,0 +1,48 @@
+package team10;
+
+import lejos.hardware.Button;
+import team10.navigation.Navigation;
+import team10.navigation.Odometer;
+
+
+/**
+ * Closed-loop turn tuning class. Turns through a set of headings for every
+ * gain and prints the mean turn time and the worst final error, to pick the
+ * fastest gain that still settles within the tolerance
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+public class TurnTuningTest {
+	private static final double[] GAINS = { 2, 4, 8 };
+	private static final double[] HEADINGS = { 90, 0, 270, 180, 45, 0 };
+	private static final double TOLERANCE = 1;
+	private static final int SETTLE_TICKS = 3;
+
+	public static void main(String[] args) {
+		Odometer odometer = new Odometer();
+		Navigation navigation = new Navigation(odometer);
+		odometer.start();
+		navigation.setTurnSettle(TOLERANCE, SETTLE_TICKS);
+
+		System.out.println("Place facing +x");
+		System.out.println("ENTER to start");
+		while (Button.waitForAnyPress() != Button.ID_ENTER);
+
+		for (double gain : GAINS) {
+			navigation.setTurnGain(gain);
+			double time = 0;
+			double error = 0;
+			for (double heading : HEADINGS) {
+				navigation.turnTo(heading, true);
+				time += navigation.getTurnTime();
+				error = Math.max(error, Math.abs(navigation.getTurnError()));
+			}
+			System.out.println("K" + gain + " " + Math.round(time/HEADINGS.length) + "ms " + error);
+		}
+
+		while (Button.waitForAnyPress() != Button.ID_ESCAPE);
+		System.exit(0);
+	}
+}
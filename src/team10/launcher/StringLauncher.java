@@ -18,7 +18,7 @@ public class StringLauncher {
 	private static final int RELEASE_SPEED = 4000;
 	private static final int PULL_SPEED = 300;
 	public static double angle;
-	public static boolean catapultLowered;
+	public static volatile boolean catapultLowered;
 	
 	/**
 	 *  Constructor
@@ -30,7 +30,7 @@ public class StringLauncher {
 	}
 	
 	/**
-	 *  Fire the ball
+	 *  Fire the ball, the catapult has to be lowered again for the next shot
 	 *  
 	 *  @return No return value
 	 *  @since 2.0
@@ -38,6 +38,7 @@ public class StringLauncher {
 	public void fire() {
 		if (catapultLowered == true){
 			// Fire the catapult
+			catapultLowered = false;
 			releaseMotor.setSpeed(RELEASE_SPEED);
 			releaseMotor.rotate(90, false);
 		}
@@ -50,6 +51,8 @@ public class StringLauncher {
 	 *  @since 2.0
 	 */
 	public void lowerCatapult() {
+		catapultLowered = false;
+		
 		// reset the firing motors
 		for (EV3LargeRegulatedMotor motor : new EV3LargeRegulatedMotor[] { pullMotor, releaseMotor}) {
 			motor.stop();
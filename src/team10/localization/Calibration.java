@@ -0,0 +1,253 @@
+package team10.localization;
+
+import java.io.IOException;
+
+import lejos.robotics.SampleProvider;
+import team10.navigation.Clock;
+import team10.navigation.Navigation;
+import team10.navigation.Odometer;
+import team10.navigation.RobotConfig;
+
+/**
+ * Calibrates the wheel radius and the wheel base. The robot drives a square
+ * of grid tiles and spins in place on an intersection, logs the tacho counts
+ * at every line crossing and solves both constants by least squares
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class Calibration {
+	private static final int SQUARE_TILES = 3;
+	private static final int SPIN_TURNS = 3;
+	private static final int MAX_CROSSINGS = 4*SPIN_TURNS + 1;
+	private static final int MAX_SAMPLES = 64;
+	private static final int CROSSINGS_PER_TURN = 4;
+	private static final long LEG_TIMEOUT = 15000;
+	private static final int ITERATIONS = 3;
+
+	private Odometer odometer;
+	private Navigation navigation;
+	private SampleProvider leftColorSensor, rightColorSensor;
+	private float[] leftColorData, rightColorData;
+	private float forwardSpeed, turnSpeed;
+	private double wheelRadius, wheelBase;
+
+	// straight samples: mean wheel rotation between two lines and the sensor skew
+	private final double[] legRotation = new double[MAX_SAMPLES];
+	private final double[] legSkew = new double[MAX_SAMPLES];
+	private int legSamples;
+
+	// spin samples: differential wheel rotation over one full turn
+	private final double[] spinRotation = new double[MAX_SAMPLES];
+	private final double[] spinAngle = new double[MAX_SAMPLES];
+	private int spinSamples;
+
+	// crossings of the current leg or spin, in wheel rotation (rads)
+	private final double[] leftCrossings = new double[MAX_CROSSINGS];
+	private final double[] rightCrossings = new double[MAX_CROSSINGS];
+
+	/**
+	 *  Constructor
+	 *
+	 *  @param Odometer odometer - reads the tacho counts of its motors
+	 *  @param Navigation navigation
+	 *  @param SampleProvider leftColorSensor
+	 *  @param float[] leftColorData
+	 *  @param SampleProvider rightColorSensor
+	 *  @param float[] rightColorData
+	 *  @since 1.0
+	 */
+	public Calibration(Odometer odometer, Navigation navigation, SampleProvider leftColorSensor, float[] leftColorData, SampleProvider rightColorSensor, float[] rightColorData) {
+		this.odometer = odometer;
+		this.navigation = navigation;
+		this.leftColorSensor = leftColorSensor;
+		this.leftColorData = leftColorData;
+		this.rightColorSensor = rightColorSensor;
+		this.rightColorData = rightColorData;
+		this.forwardSpeed = Navigation.getForwardSpeed();
+		this.turnSpeed = Navigation.getTurnSpeed();
+		this.wheelRadius = Odometer.getWheelRadius();
+		this.wheelBase = Odometer.getWheelBase();
+	}
+
+	/**
+	 *  Run the calibration, the robot starts on a grid intersection heading along a line.
+	 *  The solved geometry is written to the configuration file
+	 *
+	 *  @return RobotConfig config - the solved geometry, null if there was not enough data
+	 *  @since 1.0
+	 */
+	public RobotConfig calibrate() {
+		legSamples = 0;
+		spinSamples = 0;
+
+		// Square, logging the crossings of every leg
+		for (int leg = 0; leg < 4; leg++) {
+			driveLeg();
+			navigation.goForward(LightLocalizer.SENSOR_OFFSET);
+			navigation.turn(Math.PI/2);
+		}
+
+		// Spins on the last intersection, both ways to cancel the bias
+		spin(1);
+		spin(-1);
+
+		if (legSamples == 0 || spinSamples == 0)
+			return null;
+
+		solve();
+		RobotConfig config = new RobotConfig(wheelRadius, wheelBase);
+		config.setSlipAcceleration(RobotConfig.load().getSlipAcceleration());
+		try {
+			config.save();
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+		return config;
+	}
+
+	/**
+	 *  Drive straight across SQUARE_TILES lines, log the crossings of both sensors
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void driveLeg() {
+		int leftCount = 0, rightCount = 0;
+		LineDetector leftDetector = new LineDetector();
+		LineDetector rightDetector = new LineDetector();
+		long timeout = System.currentTimeMillis() + LEG_TIMEOUT;
+
+		navigation.setSpeeds(forwardSpeed, forwardSpeed);
+		while ((leftCount < SQUARE_TILES || rightCount < SQUARE_TILES) && System.currentTimeMillis() < timeout) {
+			boolean leftEdge = leftDetector.update(getColorData(leftColorSensor, leftColorData), Clock.nanoTime());
+			boolean rightEdge = rightDetector.update(getColorData(rightColorSensor, rightColorData), Clock.nanoTime());
+
+			// log the rotation on the entering edge of every line
+			if (leftEdge && leftCount < SQUARE_TILES)
+				leftCrossings[leftCount++] = getMeanRotation();
+			if (rightEdge && rightCount < SQUARE_TILES)
+				rightCrossings[rightCount++] = getMeanRotation();
+		}
+		navigation.setSpeeds(0, 0);
+
+		// one sample per pair of consecutive lines crossed by both sensors
+		int lines = Math.min(leftCount, rightCount);
+		for (int i = 1; i < lines && legSamples < MAX_SAMPLES; i++) {
+			legRotation[legSamples] = ((leftCrossings[i] - leftCrossings[i - 1]) + (rightCrossings[i] - rightCrossings[i - 1]))/2;
+			legSkew[legSamples] = ((leftCrossings[i] - rightCrossings[i]) + (leftCrossings[i - 1] - rightCrossings[i - 1]))/2;
+			legSamples++;
+		}
+	}
+
+	/**
+	 *  Spin in place SPIN_TURNS times, the left sensor crosses the same line edge every 4 crossings
+	 *
+	 * 	@param int direction - 1 for counter-clockwise, -1 for clockwise
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void spin(int direction) {
+		int count = 0;
+		LineDetector detector = new LineDetector();
+		long timeout = System.currentTimeMillis() + LEG_TIMEOUT*SPIN_TURNS;
+
+		navigation.setSpeeds(-direction*turnSpeed, direction*turnSpeed);
+		while (count < MAX_CROSSINGS && System.currentTimeMillis() < timeout) {
+			if (detector.update(getColorData(leftColorSensor, leftColorData), Clock.nanoTime()))
+				leftCrossings[count++] = getDifferentialRotation();
+		}
+		navigation.setSpeeds(0, 0);
+
+		for (int i = CROSSINGS_PER_TURN; i < count && spinSamples < MAX_SAMPLES; i++) {
+			spinRotation[spinSamples] = leftCrossings[i] - leftCrossings[i - CROSSINGS_PER_TURN];
+			spinAngle[spinSamples] = direction*2*Math.PI;
+			spinSamples++;
+		}
+	}
+
+	/**
+	 *  Batch least squares on the logged samples
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void solve() {
+		double tile = Navigation.getTileSize();
+
+		// distance = radius * rotation, the distance between lines grows with the heading error
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			double numerator = 0, denominator = 0;
+			for (int i = 0; i < legSamples; i++) {
+				double skew = Math.min(1.0, Math.abs(wheelRadius*legSkew[i]/LightLocalizer.SENSOR_TRACK));
+				double distance = tile/Math.cos(Math.asin(skew));
+				numerator += distance*legRotation[i];
+				denominator += legRotation[i]*legRotation[i];
+			}
+			wheelRadius = numerator/denominator;
+		}
+
+		// angle * wheelBase = radius * differential rotation
+		double numerator = 0, denominator = 0;
+		for (int i = 0; i < spinSamples; i++) {
+			numerator += spinRotation[i]*spinAngle[i];
+			denominator += spinAngle[i]*spinAngle[i];
+		}
+		wheelBase = wheelRadius*numerator/denominator;
+	}
+
+	/**
+	 *  Get the mean rotation of both wheels
+	 *
+	 *  @return double rotation - in rads
+	 *  @since 1.0
+	 */
+	private double getMeanRotation() {
+		return Math.toRadians((odometer.getLeftMotor().getTachoCount() + odometer.getRightMotor().getTachoCount())/2.0);
+	}
+
+	/**
+	 *  Get the rotation of the right wheel relative to the left wheel
+	 *
+	 *  @return double rotation - in rads
+	 *  @since 1.0
+	 */
+	private double getDifferentialRotation() {
+		return Math.toRadians(odometer.getRightMotor().getTachoCount() - odometer.getLeftMotor().getTachoCount());
+	}
+
+	/**
+	 *  Get data from a color sensor
+	 *
+	 * 	@param SampleProvider sensor
+	 * 	@param float[] data
+	 *  @return float color
+	 *  @since 1.0
+	 */
+	private float getColorData(SampleProvider sensor, float[] data) {
+		sensor.fetchSample(data, 0);
+		return data[0]*100;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double wheelRadius - the last solved radius in cm
+	 *  @since 1.0
+	 */
+	public double getWheelRadius() {
+		return wheelRadius;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double wheelBase - the last solved wheel base in cm
+	 *  @since 1.0
+	 */
+	public double getWheelBase() {
+		return wheelBase;
+	}
+}
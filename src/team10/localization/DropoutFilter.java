@@ -0,0 +1,75 @@
+package team10.localization;
+
+/**
+ * Holds the last valid sample through dropouts. The ultrasonic sensor reads
+ * 255 cm or more when the echo is lost, so those samples are ignored unless
+ * enough of them come in a row, in which case there really is nothing there
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class DropoutFilter implements SampleFilter {
+	private final float invalid;
+	private final int maxDropouts;
+	private int dropouts;
+	private float last = Float.NaN;
+	private long rejected;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param float invalid - samples at or above this value, or NaN, are dropouts
+	 * 	@param int maxDropouts - the dropouts in a row ignored before they are passed through
+	 *  @since 1.0
+	 */
+	public DropoutFilter(float invalid, int maxDropouts) {
+		this.invalid = invalid;
+		this.maxDropouts = maxDropouts;
+	}
+
+	/**
+	 *  Filter the next sample
+	 *
+	 * 	@param float sample - the raw sample
+	 *  @return float filtered - the sample, or the last one held, NaN if there was none yet
+	 *  @since 1.0
+	 */
+	public float filter(float sample) {
+		if (!(sample < invalid)) {
+			if (dropouts < maxDropouts) {
+				dropouts++;
+				rejected++;
+				return last;
+			}
+			// Repeated dropouts, pass them through
+			last = sample;
+			return sample;
+		}
+		dropouts = 0;
+		last = sample;
+		return sample;
+	}
+
+	/**
+	 *  Forget the previous samples, the rejected count is kept
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void reset() {
+		dropouts = 0;
+		last = Float.NaN;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long rejected - the samples replaced by the last one held
+	 *  @since 1.0
+	 */
+	public long getRejectedCount() {
+		return rejected;
+	}
+}
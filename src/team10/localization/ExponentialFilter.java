@@ -0,0 +1,55 @@
+package team10.localization;
+
+/**
+ * Exponential smoothing, each output moves a fraction of the way towards the
+ * sample. The first sample after a reset passes through
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class ExponentialFilter implements SampleFilter {
+	private final float alpha;
+	private float value;
+	private boolean empty = true;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param float alpha - the weight of the new sample, in (0, 1]
+	 *  @since 1.0
+	 */
+	public ExponentialFilter(float alpha) {
+		if (alpha <= 0 || alpha > 1)
+			throw new IllegalArgumentException("Smoothing factor must be in (0, 1]");
+		this.alpha = alpha;
+	}
+
+	/**
+	 *  Filter the next sample
+	 *
+	 * 	@param float sample - the raw sample
+	 *  @return float filtered - the smoothed value
+	 *  @since 1.0
+	 */
+	public float filter(float sample) {
+		if (empty) {
+			value = sample;
+			empty = false;
+		} else {
+			value += alpha*(sample - value);
+		}
+		return value;
+	}
+
+	/**
+	 *  Forget the previous samples
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void reset() {
+		empty = true;
+	}
+}
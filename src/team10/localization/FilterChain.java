@@ -0,0 +1,48 @@
+package team10.localization;
+
+/**
+ * Runs filter stages one after the other, so each sensor consumer can
+ * compose the stages it needs
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class FilterChain implements SampleFilter {
+	private final SampleFilter[] stages;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param SampleFilter... stages - in the order they run
+	 *  @since 1.0
+	 */
+	public FilterChain(SampleFilter... stages) {
+		this.stages = stages.clone();
+	}
+
+	/**
+	 *  Filter the next sample through every stage
+	 *
+	 * 	@param float sample - the raw sample
+	 *  @return float filtered - the output of the last stage
+	 *  @since 1.0
+	 */
+	public float filter(float sample) {
+		for (int i = 0; i < stages.length; i++)
+			sample = stages[i].filter(sample);
+		return sample;
+	}
+
+	/**
+	 *  Forget the previous samples in every stage
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void reset() {
+		for (int i = 0; i < stages.length; i++)
+			stages[i].reset();
+	}
+}
@@ -0,0 +1,86 @@
+package team10.localization;
+
+/**
+ * Hampel outlier rejection. A sample further from the median of the window
+ * than a number of scaled median absolute deviations is replaced by the
+ * median, the others pass through unchanged and without delay
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class HampelFilter implements SampleFilter {
+	// Scales the median absolute deviation to a standard deviation for gaussian noise
+	private static final float MAD_SCALE = 1.4826f;
+
+	private final SampleWindow window;
+	private final float[] deviations;
+	private final float threshold;
+	private long rejected;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param int length - the samples in the window
+	 * 	@param float threshold - in standard deviations, 3 is the usual choice
+	 *  @since 1.0
+	 */
+	public HampelFilter(int length, float threshold) {
+		this.window = new SampleWindow(length);
+		this.deviations = new float[length];
+		this.threshold = threshold;
+	}
+
+	/**
+	 *  Filter the next sample
+	 *
+	 * 	@param float sample - the raw sample
+	 *  @return float filtered - the sample, or the median of the window if it is an outlier
+	 *  @since 1.0
+	 */
+	public float filter(float sample) {
+		window.add(sample);
+		int count = window.size();
+		float median = window.median();
+
+		// Median absolute deviation, the window is short so an insertion sort will do
+		for (int i = 0; i < count; i++) {
+			float deviation = Math.abs(window.get(i) - median);
+			int j = i;
+			while (j > 0 && deviations[j - 1] > deviation) {
+				deviations[j] = deviations[j - 1];
+				j--;
+			}
+			deviations[j] = deviation;
+		}
+		int middle = count/2;
+		float mad = count % 2 == 1 ? deviations[middle] : (deviations[middle - 1] + deviations[middle])/2;
+
+		if (Math.abs(sample - median) > threshold*MAD_SCALE*mad) {
+			rejected++;
+			return median;
+		}
+		return sample;
+	}
+
+	/**
+	 *  Forget the previous samples, the rejected count is kept
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void reset() {
+		window.clear();
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long rejected - the samples replaced by the median
+	 *  @since 1.0
+	 */
+	public long getRejectedCount() {
+		return rejected;
+	}
+}
@@ -1,14 +1,18 @@
 package team10.localization;
 
 import lejos.robotics.SampleProvider;
+import team10.navigation.CancellationToken;
+import team10.navigation.Clock;
 import team10.navigation.Navigation;
 import team10.navigation.Odometer;
+import team10.navigation.Pose;
+import team10.telemetry.TelemetryRecorder;
 
 /**
  * Handles the light localization for the robot
  * 
  * @author Mathieu Tougas
- * @version 2.0
+ * @version 3.0
  * 
  */
 
@@ -20,12 +24,13 @@ public class LightLocalizer {
 	private SampleProvider rightColorSensor;
 	private float[] leftColorData;	
 	private float[] rightColorData;	
+	private final LineDetector leftDetector = new LineDetector();
+	private final LineDetector rightDetector = new LineDetector();
 	
-	private final double BLACK_LINE = 40.0;
 	private final double OFFSET_X = 6.5;
 	private final double OFFSET_Y = 6.5;
-	private final double SENSOR_TRACK = 11.6;
-	private final double SENSOR_OFFSET = 5.35;
+	static final double SENSOR_TRACK = 11.6;
+	static final double SENSOR_OFFSET = 5.35;
 
 	public static float leftColor, rightColor;
 	public static double locX;
@@ -123,43 +128,78 @@ public class LightLocalizer {
 	 *  @since 2.0
 	 */
 	void runUntilLine(String axis, boolean inversed){
+		runUntilLine(axis, inversed, new CancellationToken());
+	}
+	
+	/**
+	 *  Run the robot forward until it reaches a line, can be cancelled
+	 * 
+	 * 	@param String axis - the axis on which the robot is
+	 * 	@param boolean inverse - inversed if tetha = 180 or 270 degrees
+	 * 	@param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled, the position is not corrected then
+	 *  @since 3.0
+	 */
+	boolean runUntilLine(String axis, boolean inversed, CancellationToken token){
+		navigation.startMotion(token);
 		double[] offsets = new double[2];
+		// The floor level and the line state of a previous run are stale
+		leftDetector.reset();
+		rightDetector.reset();
+		long leftTime = 0, rightTime = 0;
+		Pose leftPose = null, rightPose = null;
 		navigation.setSpeeds(forwardSpeed,forwardSpeed);
 		leftColor = getLeftColorData();
 		rightColor = getRightColorData();
 		
+		// Latch the edge times, the positions are looked up in the odometer history
 		boolean leftPassed = false;
 		boolean rightPassed = false;
-		if (axis.equals("X")){
-			while (leftPassed == false || rightPassed == false){
-				leftColor = getLeftColorData();
-				rightColor = getRightColorData();
-				if (leftColor < BLACK_LINE){
-					offsets[0] = odometer.getX();
-					leftPassed = true;
-				}
-				else if (rightColor < BLACK_LINE){
-					offsets[1] = odometer.getX();
-					rightPassed = true;
-				}
+		while (leftPassed == false || rightPassed == false){
+			if (token.isCancelled())
+				return navigation.stopMotion(token);
+			long sampleStart = Clock.nanoTime();
+			leftColor = getLeftColorData();
+			long sampleMiddle = Clock.nanoTime();
+			rightColor = getRightColorData();
+			long sampleEnd = Clock.nanoTime();
+			if (leftDetector.update(leftColor, SensorPoller.sampleTime(leftColorSensor, sampleStart, sampleMiddle)) && !leftPassed){
+				leftTime = leftDetector.getEdgeTime();
+				leftPose = odometer.getPose();
+				leftPassed = true;
 			}
-		}
-		else {
-			while (leftPassed == false || rightPassed == false){
-				leftColor = getLeftColorData();
-				rightColor = getRightColorData();
-				if (leftColor < BLACK_LINE){
-					offsets[0] = odometer.getY();
-					leftPassed = true;
-				}
-				else if (rightColor < BLACK_LINE){
-					offsets[1] = odometer.getY();
-					rightPassed = true;
-				}
+			if (rightDetector.update(rightColor, SensorPoller.sampleTime(rightColorSensor, sampleMiddle, sampleEnd)) && !rightPassed){
+				rightTime = rightDetector.getEdgeTime();
+				rightPose = odometer.getPose();
+				rightPassed = true;
 			}
 		}
+		offsets[0] = getAxisPosition(leftTime, leftPose, axis);
+		offsets[1] = getAxisPosition(rightTime, rightPose, axis);
 		correctPosition(offsets, axis, inversed);
 		navigation.setSpeeds(0,0);
+		return true;
+	}
+	
+	/**
+	 *  Get the position on an axis at the time a sample was taken
+	 * 
+	 * 	@param long timestamp - Clock.nanoTime() of the sample
+	 * 	@param Pose latched - the pose when the edge was seen, if the history no longer has the sample
+	 * 	@param String axis - the axis on which the robot is
+	 *  @return double position - on the axis
+	 *  @since 3.0
+	 */
+	private double getAxisPosition(long timestamp, Pose latched, String axis){
+		double[] position = new double[3];
+		if (!odometer.poseAt(timestamp, position)){
+			position[0] = latched.getX();
+			position[1] = latched.getY();
+		}
+		if (axis.equals("X")){
+			return position[0];
+		}
+		return position[1];
 	}
 	
 	/**
@@ -226,6 +266,7 @@ public class LightLocalizer {
 	 */
 	private float getLeftColorData() {
 		leftColorSensor.fetchSample(leftColorData, 0);
+		TelemetryRecorder.recordColor(TelemetryRecorder.LEFT, leftColorData[0]);
 		float color = leftColorData[0]*100;
 		return color;
 	}
@@ -238,6 +279,7 @@ public class LightLocalizer {
 	 */
 	private float getRightColorData() {
 		rightColorSensor.fetchSample(rightColorData, 0);
+		TelemetryRecorder.recordColor(TelemetryRecorder.RIGHT, rightColorData[0]);
 		float color = rightColorData[0]*100;
 		return color;
 	}
@@ -0,0 +1,272 @@
+package team10.localization;
+
+import team10.navigation.Navigation;
+import team10.navigation.Odometer;
+
+/**
+ * Corrects the odometer on the grid lines while the robot drives, without
+ * stopping. Both colour sensors watch for a line with a LineDetector, the
+ * offset between their crossings over SENSOR_TRACK gives the heading and the
+ * line gives the coordinate along the travel axis. Only straight forward
+ * driving near an axis is used, the crossings are looked up in the odometer
+ * history at the time the samples were taken. With a PoseEstimator, every
+ * crossing is handed to the estimator instead and it corrects the odometer,
+ * so there is a single correction for both
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class LineCorrector extends Thread {
+	private static final int LEFT = 0, RIGHT = 1;
+	private static final double MIN_SPEED = 3.0;
+	private static final double MAX_TURN_RATE = 0.15;
+	private static final double MAX_AXIS_ERROR = Math.toRadians(20);
+	private static final double MAX_SNAP = 6.0;
+	private static final long MAX_PAIR_TIME = 2000000000L;
+	private static final long WAIT_TIMEOUT = 100;
+	private static final int MAX_BACKLOG = 64;
+
+	private final Odometer odometer;
+	private final PoseEstimator estimator;
+	private final SensorPoller.Channel[] channels;
+	private final float[] sample;
+	private final double[] leftPose, rightPose;
+
+	// per sensor, only used by the corrector thread
+	private final LineDetector[] detectors;
+	private final long[] lastTime, crossing;
+
+	private volatile boolean enabled;
+	private volatile long accepted, rejected;
+	private volatile double lastOffset, lastHeading;
+
+	/**
+	 *  Constructor, the corrector runs as a daemon once started. The
+	 *  channels should keep a history so no sample is missed when the
+	 *  corrector falls behind
+	 *
+	 * 	@param Odometer odometer
+	 * 	@param SensorPoller.Channel left - the left colour sensor in red mode
+	 * 	@param SensorPoller.Channel right - the right colour sensor in red mode
+	 *  @since 1.0
+	 */
+	public LineCorrector(Odometer odometer, SensorPoller.Channel left, SensorPoller.Channel right) {
+		this(odometer, left, right, null);
+	}
+
+	/**
+	 *  Constructor, the crossings go through an estimator
+	 *
+	 * 	@param Odometer odometer
+	 * 	@param SensorPoller.Channel left - the left colour sensor in red mode
+	 * 	@param SensorPoller.Channel right - the right colour sensor in red mode
+	 * 	@param PoseEstimator estimator - corrects the odometer, null to correct it directly
+	 *  @since 1.0
+	 */
+	public LineCorrector(Odometer odometer, SensorPoller.Channel left, SensorPoller.Channel right, PoseEstimator estimator) {
+		this.odometer = odometer;
+		this.estimator = estimator;
+		this.channels = new SensorPoller.Channel[] { left, right };
+		this.sample = new float[Math.max(left.sampleSize(), right.sampleSize())];
+		this.leftPose = new double[3];
+		this.rightPose = new double[3];
+		this.detectors = new LineDetector[] { new LineDetector(), new LineDetector() };
+		this.lastTime = new long[] { Long.MIN_VALUE, Long.MIN_VALUE };
+		this.crossing = new long[] { Long.MIN_VALUE, Long.MIN_VALUE };
+		this.enabled = true;
+		setDaemon(true);
+	}
+
+	/**
+	 *  Run the corrector, wakes up with every left sample and goes through
+	 *  the new samples of both sensors in order
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void run() {
+		long sequence = 0;
+		while (true) {
+			sequence = channels[LEFT].awaitSample(sequence, WAIT_TIMEOUT);
+			poll(LEFT);
+			poll(RIGHT);
+		}
+	}
+
+	/**
+	 *  Mutator, a disabled corrector still tracks the lines but does not
+	 *  correct the odometer
+	 *
+	 * 	@param boolean enabled
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long accepted - the crossings that corrected the odometer, or the estimator
+	 *  @since 1.0
+	 */
+	public long getAcceptedCount() {
+		return accepted;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long rejected - the paired crossings that failed a check, or the crossings the estimator gated out
+	 *  @since 1.0
+	 */
+	public long getRejectedCount() {
+		return rejected;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double offset - the last position correction along the travel axis in cm
+	 *  @since 1.0
+	 */
+	public double getLastOffset() {
+		return lastOffset;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double heading - the last heading correction in degrees
+	 *  @since 1.0
+	 */
+	public double getLastHeading() {
+		return Math.toDegrees(lastHeading);
+	}
+
+	/**
+	 *  Go through the samples of a sensor newer than the last one seen,
+	 *  oldest first. Without a history only the latest sample is seen
+	 *
+	 * 	@param int side - LEFT or RIGHT
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void poll(int side) {
+		SensorPoller.Channel channel = channels[side];
+		int age = 0;
+		while (age < MAX_BACKLOG) {
+			long time = channel.getHistory(age, sample, 0);
+			if (time == Long.MIN_VALUE || time <= lastTime[side])
+				break;
+			age++;
+		}
+
+		if (age == 0) {
+			long time = channel.read(sample, 0);
+			if (time != Long.MIN_VALUE && time > lastTime[side]) {
+				lastTime[side] = time;
+				update(side, sample[0]*100, time);
+			}
+			return;
+		}
+
+		for (int i = age - 1; i >= 0; i--) {
+			long time = channel.getHistory(i, sample, 0);
+			if (time == Long.MIN_VALUE)
+				continue;
+			lastTime[side] = time;
+			update(side, sample[0]*100, time);
+		}
+	}
+
+	/**
+	 *  Look for the line edge in a sample, and correct once both sensors
+	 *  crossed the same line, at the edge times interpolated by the detectors
+	 *
+	 * 	@param int side - LEFT or RIGHT
+	 * 	@param float value - the reflected light in percent
+	 * 	@param long timestamp - Clock.nanoTime() of the sample
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void update(int side, float value, long timestamp) {
+		if (!detectors[side].update(value, timestamp))
+			return;
+		timestamp = detectors[side].getEdgeTime();
+
+		// The estimator takes the crossings one at a time, the heading comes from the pairs there
+		if (estimator != null) {
+			if (!enabled)
+				return;
+			if (estimator.updateLineCrossing(side == LEFT, timestamp))
+				accepted++;
+			else
+				rejected++;
+			return;
+		}
+
+		int other = 1 - side;
+		if (!enabled || crossing[other] == Long.MIN_VALUE || timestamp - crossing[other] > MAX_PAIR_TIME) {
+			crossing[side] = timestamp;
+			crossing[other] = Long.MIN_VALUE;
+			return;
+		}
+		long leftTime = side == LEFT ? timestamp : crossing[LEFT];
+		long rightTime = side == RIGHT ? timestamp : crossing[RIGHT];
+		crossing[LEFT] = Long.MIN_VALUE;
+		crossing[RIGHT] = Long.MIN_VALUE;
+		if (correct(leftTime, rightTime))
+			accepted++;
+		else
+			rejected++;
+	}
+
+	/**
+	 *  Correct the odometer from a pair of crossings
+	 *
+	 * 	@param long leftTime - Clock.nanoTime() of the left crossing
+	 * 	@param long rightTime - Clock.nanoTime() of the right crossing
+	 *  @return boolean corrected - false if the robot was not driving straight along an axis, or the line is too far from the odometer
+	 *  @since 1.0
+	 */
+	private boolean correct(long leftTime, long rightTime) {
+		if (odometer.getLinearVelocity() < MIN_SPEED || Math.abs(odometer.getAngularVelocity()) > MAX_TURN_RATE)
+			return false;
+		if (!odometer.poseAt(leftTime, leftPose) || !odometer.poseAt(rightTime, rightPose))
+			return false;
+
+		// Travel axis, the grid direction closest to the heading
+		double theta = Math.atan2(Math.sin(leftPose[2]) + Math.sin(rightPose[2]), Math.cos(leftPose[2]) + Math.cos(rightPose[2]));
+		double axis = Math.round(theta/(Math.PI/2))*(Math.PI/2);
+		if (Math.abs(theta - axis) > MAX_AXIS_ERROR)
+			return false;
+		double ux = Math.round(Math.cos(axis));
+		double uy = Math.round(Math.sin(axis));
+
+		// The sensor further back crosses later, the robot is turned towards its side
+		double leftDistance = leftPose[0]*ux + leftPose[1]*uy;
+		double rightDistance = rightPose[0]*ux + rightPose[1]*uy;
+		double sin = (leftDistance - rightDistance)/LightLocalizer.SENSOR_TRACK;
+		if (Math.abs(sin) > Math.sin(MAX_AXIS_ERROR))
+			return false;
+		double angle = Math.asin(sin);
+
+		// Snap the left sensor onto the nearest line
+		double tile = Navigation.getTileSize();
+		double sensor = leftDistance + LightLocalizer.SENSOR_OFFSET*Math.cos(angle) - LightLocalizer.SENSOR_TRACK/2*sin;
+		double offset = Math.round(sensor/tile)*tile - sensor;
+		if (Math.abs(offset) > MAX_SNAP)
+			return false;
+
+		double heading = axis + angle - theta;
+		heading = Math.atan2(Math.sin(heading), Math.cos(heading));
+		odometer.correct(offset*ux, offset*uy, heading);
+		lastOffset = offset;
+		lastHeading = heading;
+		return true;
+	}
+}
@@ -0,0 +1,223 @@
+package team10.localization;
+
+/**
+ * Detects the grid lines in the reflected light of one colour sensor. The
+ * floor level is tracked while off the lines, so the thresholds follow the
+ * lighting of the table. A line is entered when the light falls below a
+ * fraction of the floor quickly enough, a slow drift is taken as a change
+ * of lighting instead, and left once it recovers above a higher fraction.
+ * If the light instead settles well above the darkest sample of the line
+ * but below that fraction for as long as a line edge may take, the floor
+ * got darker meanwhile and is tracked down as a drift. Constant time and
+ * memory per sample
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class LineDetector {
+	private static final double ENTER_DROP = 0.25;
+	private static final double EXIT_DROP = 0.1;
+	private static final double BASELINE_TIME_CONSTANT = 1.0;
+	private static final long MAX_EDGE_TIME = 1000000000L;
+	private static final double MAX_TRACK_STEP = 0.1;
+
+	private final double enterDrop, exitDrop;
+	private double baseline = Double.NaN;
+	private boolean onLine;
+	private double lineMin;
+	private long bandTime = Long.MIN_VALUE;
+
+	// last sample on the floor, and last sample above the entering level
+	private long floorTime = Long.MIN_VALUE;
+	private long aboveTime;
+	private double aboveValue;
+	private long lastTime;
+
+	private long edgeTime = Long.MIN_VALUE;
+	private long edges, drifts;
+
+	/**
+	 *  Constructor, enters a line 25 % below the floor and leaves it 10 %
+	 *  below
+	 *
+	 *  @since 1.0
+	 */
+	public LineDetector() {
+		this(ENTER_DROP, EXIT_DROP);
+	}
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param double enterDrop - fraction of the floor level the light must fall by to enter a line
+	 * 	@param double exitDrop - fraction of the floor level the light must come back within to leave it, smaller than enterDrop
+	 *  @since 1.0
+	 */
+	public LineDetector(double enterDrop, double exitDrop) {
+		if (exitDrop >= enterDrop)
+			throw new IllegalArgumentException("The exit drop must be smaller than the enter drop");
+		this.enterDrop = enterDrop;
+		this.exitDrop = exitDrop;
+	}
+
+	/**
+	 *  Take the next sample
+	 *
+	 * 	@param double value - the reflected light, in any unit
+	 * 	@param long timestamp - Clock.nanoTime() of the sample
+	 *  @return boolean edge - true if the sensor just entered a line, the time is in getEdgeTime
+	 *  @since 1.0
+	 */
+	public boolean update(double value, long timestamp) {
+		long previousTime = lastTime;
+		lastTime = timestamp;
+		if (Double.isNaN(baseline)) {
+			baseline = value;
+			floorTime = timestamp;
+			aboveTime = timestamp;
+			aboveValue = value;
+			return false;
+		}
+
+		double enter = baseline*(1 - enterDrop);
+		double exit = baseline*(1 - exitDrop);
+
+		// Not sampled for a while, a dark sample is a line already entered
+		if (timestamp - previousTime > MAX_EDGE_TIME && value < enter) {
+			onLine = true;
+			lineMin = value;
+			bandTime = Long.MIN_VALUE;
+			return false;
+		}
+
+		if (onLine) {
+			lineMin = Math.min(lineMin, value);
+			if (value > exit) {
+				onLine = false;
+				floorTime = timestamp;
+				aboveTime = timestamp;
+				aboveValue = value;
+			} else if (value <= lineMin + (enterDrop - exitDrop)*baseline) {
+				bandTime = Long.MIN_VALUE;
+			} else if (bandTime == Long.MIN_VALUE) {
+				bandTime = timestamp;
+			} else if (timestamp - bandTime > MAX_EDGE_TIME) {
+				// Off the line onto a darker floor, the floor level is tracked down as a drift
+				onLine = false;
+				floorTime = Long.MIN_VALUE;
+				drifts++;
+				aboveTime = timestamp;
+				aboveValue = value;
+			}
+			return false;
+		}
+
+		if (value >= enter) {
+			aboveTime = timestamp;
+			aboveValue = value;
+		}
+
+		if (value > exit) {
+			floorTime = timestamp;
+			track(value, timestamp - previousTime);
+			return false;
+		}
+		if (floorTime == Long.MIN_VALUE || timestamp - floorTime > MAX_EDGE_TIME) {
+			// Too slow for a line, the lighting changed
+			if (floorTime != Long.MIN_VALUE)
+				drifts++;
+			floorTime = Long.MIN_VALUE;
+			track(value, timestamp - previousTime);
+			return false;
+		}
+		if (value >= enter)
+			return false;
+
+		// Falling edge, interpolate the time the light crossed the entering level
+		onLine = true;
+		lineMin = value;
+		bandTime = Long.MIN_VALUE;
+		edges++;
+		double fraction = aboveValue > value ? (aboveValue - enter)/(aboveValue - value) : 1;
+		edgeTime = aboveTime + (long) (fraction*(timestamp - aboveTime));
+		return true;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long timestamp - Clock.nanoTime() the last line was entered, between two samples
+	 *  @since 1.0
+	 */
+	public long getEdgeTime() {
+		return edgeTime;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return boolean onLine
+	 *  @since 1.0
+	 */
+	public boolean isOnLine() {
+		return onLine;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double baseline - the floor level, NaN before the first sample
+	 *  @since 1.0
+	 */
+	public double getBaseline() {
+		return baseline;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long edges - the lines entered
+	 *  @since 1.0
+	 */
+	public long getEdgeCount() {
+		return edges;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long drifts - the slow falls, and the darker floors after a line, taken as lighting changes
+	 *  @since 1.0
+	 */
+	public long getDriftCount() {
+		return drifts;
+	}
+
+	/**
+	 *  Forget the floor level and the line state
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void reset() {
+		baseline = Double.NaN;
+		onLine = false;
+		floorTime = Long.MIN_VALUE;
+		edgeTime = Long.MIN_VALUE;
+	}
+
+	/**
+	 *  Low-pass the floor level
+	 *
+	 * 	@param double value - the sample
+	 * 	@param long elapsed - time since the previous sample in ns
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void track(double value, long elapsed) {
+		double dt = Math.max(0, Math.min(MAX_TRACK_STEP, elapsed/1e9));
+		baseline += dt/(BASELINE_TIME_CONSTANT + dt)*(value - baseline);
+	}
+}
@@ -9,6 +9,7 @@ import lejos.hardware.Sound;
 import lejos.robotics.SampleProvider;
 import team10.navigation.Navigation;
 import team10.navigation.Odometer;
+import team10.navigation.RobotConfig;
 
 /**
  * Handles the localization routine for the robot
@@ -22,9 +23,15 @@ public class Localization {
 	private static final Port leftColorPort = LocalEV3.get().getPort("S2");	
 	private static final Port rightColorPort = LocalEV3.get().getPort("S3");	
 	SampleProvider leftColorValue, rightColorValue;
-	private static final USLocalizer.LocalizationType localization_type = USLocalizer.LocalizationType.FALLING_EDGE;
+	private static final USLocalizer.LocalizationType localization_type = USLocalizer.LocalizationType.SINGLE_SWEEP;
+	private static final long US_PERIOD = 30;
+	private static final long COLOR_PERIOD = 5;
+	private static final int COLOR_HISTORY = 32;
 	private Odometer odometer;
 	private Navigation navigation;
+	private final SensorPoller poller = new SensorPoller();
+	private SensorPoller.Channel leftColorChannel, rightColorChannel;
+	private SampleProvider usDistance;
 	
 	/**
 	 *  Constructor
@@ -36,6 +43,7 @@ public class Localization {
 	public Localization (Odometer odometer, Navigation navigation){
 		this.odometer = odometer;
 		this.navigation = navigation;
+		poller.start();
 	}
 	
 	/**
@@ -50,19 +58,23 @@ public class Localization {
 		// Setup US sensor
 		@SuppressWarnings("resource")					    	
 		SensorModes usSensor = new EV3UltrasonicSensor(usPort);
-		SampleProvider usValue = usSensor.getMode("Distance");
+		// The sensors are sampled on the poller thread, the localizers block on the channels
+		usDistance = usSensor.getMode("Distance");
+		SensorPoller.Channel usValue = poller.register(usDistance, US_PERIOD, 0);
 		float[] usData = new float[usValue.sampleSize()];
 		
 		// Setup color sensor
 		@SuppressWarnings("resource")
 		SensorModes leftColorSensor = new EV3ColorSensor(leftColorPort);
-		leftColorValue =leftColorSensor.getMode("Red");
+		leftColorChannel = poller.register(leftColorSensor.getMode("Red"), COLOR_PERIOD, COLOR_HISTORY);
+		leftColorValue = leftColorChannel;
 		float[] leftColorData = new float[leftColorValue.sampleSize()];
 				
 		// Setup color sensor
 		@SuppressWarnings("resource")
 		SensorModes rightColorSensor = new EV3ColorSensor(rightColorPort);
-		rightColorValue = rightColorSensor.getMode("Red");
+		rightColorChannel = poller.register(rightColorSensor.getMode("Red"), COLOR_PERIOD, COLOR_HISTORY);
+		rightColorValue = rightColorChannel;
 		float[] rightColorData = new float[rightColorValue.sampleSize()];
 		//while (Button.waitForAnyPress() != Button.ID_ENTER);
 		
@@ -71,6 +83,7 @@ public class Localization {
 		// perform the ultrasonic localization
 		USLocalizer usl = new USLocalizer(odometer, navigation, usValue, usData, localization_type);
 		usl.doLocalization();
+		poller.unregister(usValue);
 		
 		// perform the light sensor localization
 		LightLocalizer lsl = new LightLocalizer(odometer, navigation, leftColorValue, leftColorData, rightColorValue, rightColorData);
@@ -79,6 +92,66 @@ public class Localization {
 		Sound.beep();
 	}
 	
+	/**
+	 *  Start correcting the odometer on the grid lines while driving, from
+	 *  the colour sensors of the localization
+	 * 
+	 *  @return LineCorrector corrector - already running
+	 *  @since 3.0
+	 */
+	public LineCorrector startLineCorrector() {
+		if (leftColorChannel == null || rightColorChannel == null)
+			throw new IllegalStateException("Localization not done");
+		LineCorrector corrector = new LineCorrector(odometer, leftColorChannel, rightColorChannel);
+		corrector.start();
+		return corrector;
+	}
+	
+	/**
+	 *  Feed the grid lines and the wall distances to a pose estimator while
+	 *  driving, the estimator then corrects the odometer instead of the
+	 *  line corrector
+	 * 
+	 *  @param PoseEstimator estimator
+	 *  @return LineCorrector corrector - already running
+	 *  @since 3.0
+	 */
+	public LineCorrector startEstimator(PoseEstimator estimator) {
+		if (leftColorChannel == null || rightColorChannel == null || usDistance == null)
+			throw new IllegalStateException("Localization not done");
+		LineCorrector corrector = new LineCorrector(odometer, leftColorChannel, rightColorChannel, estimator);
+		corrector.start();
+		
+		SensorPoller.Channel usValue = poller.register(usDistance, US_PERIOD, 0);
+		new UltrasonicPoller(usValue, new float[usValue.sampleSize()], estimator).start();
+		return corrector;
+	}
+	
+	/**
+	 *  Calibrate the wheel radius and wheel base, the robot starts on a grid intersection
+	 * 
+	 *  @return RobotConfig config - the solved geometry, null if the calibration failed
+	 *  @since 3.0
+	 */
+	public RobotConfig calibrate() {
+		// Setup color sensors
+		@SuppressWarnings("resource")
+		SensorModes leftColorSensor = new EV3ColorSensor(leftColorPort);
+		leftColorValue = leftColorSensor.getMode("Red");
+		float[] leftColorData = new float[leftColorValue.sampleSize()];
+		@SuppressWarnings("resource")
+		SensorModes rightColorSensor = new EV3ColorSensor(rightColorPort);
+		rightColorValue = rightColorSensor.getMode("Red");
+		float[] rightColorData = new float[rightColorValue.sampleSize()];
+		
+		Sound.beep();
+		Calibration calibration = new Calibration(odometer, navigation, leftColorValue, leftColorData, rightColorValue, rightColorData);
+		RobotConfig config = calibration.calibrate();
+		Sound.beep();
+		
+		return config;
+	}
+	
 	/**
 	 *  Correct position using light sensors before shot, goes forward until it crosses a line
 	 * 
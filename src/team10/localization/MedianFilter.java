@@ -0,0 +1,46 @@
+package team10.localization;
+
+/**
+ * Median of the last samples. Removes isolated spikes without smoothing the
+ * edges, but delays a step by half the window
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class MedianFilter implements SampleFilter {
+	private final SampleWindow window;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param int length - the samples in the window, odd to avoid averaging the middle two
+	 *  @since 1.0
+	 */
+	public MedianFilter(int length) {
+		this.window = new SampleWindow(length);
+	}
+
+	/**
+	 *  Filter the next sample
+	 *
+	 * 	@param float sample - the raw sample
+	 *  @return float filtered - the median of the window
+	 *  @since 1.0
+	 */
+	public float filter(float sample) {
+		window.add(sample);
+		return window.median();
+	}
+
+	/**
+	 *  Forget the previous samples
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void reset() {
+		window.clear();
+	}
+}
@@ -17,7 +17,7 @@ public class PController {
 	private final int motorStraight = 200, FILTER_OUT = 20;
 	private EV3LargeRegulatedMotor leftMotor, rightMotor;
 	private int distance;
-	private int filterControl;
+	private final DropoutFilter dropoutFilter = new DropoutFilter(255, FILTER_OUT);
 	private Double propConst = 1.8;
 	private int maxCorrection = 160;
 	
@@ -40,7 +40,6 @@ public class PController {
 		rightMotor.setSpeed(motorStraight);
 		leftMotor.forward();
 		rightMotor.forward();
-		filterControl = 0;
 	}
 	
 	/**
@@ -52,29 +51,16 @@ public class PController {
 	 */
 	public void processUSData(int distance) {
 
-		// rudimentary filter - toss out invalid samples corresponding to null
-		// signal.
-		// (n.b. this was not included in the Bang-bang controller, but easily
-		// could have).
-		//
-		if (distance >= 255 && filterControl < FILTER_OUT) {
-			// bad value, do not set the distance var, however do increment the
-			// filter value
-			filterControl++;
-		} else if (distance >= 255) {
-			// We have repeated large values, so there must actually be nothing
-			// there: leave the distance alone
-			this.distance = distance;
-		} else {
-			// distance went below 255: reset filter and leave
-			// distance alone.
-			filterControl = 0;
-			this.distance = distance;
-		}
+		// toss out invalid samples corresponding to null signal, unless
+		// there are repeated large values and there must actually be
+		// nothing there
+		float filtered = dropoutFilter.filter(distance);
+		if (!Float.isNaN(filtered))
+			this.distance = (int) filtered;
 		
 		int distError;
 		
-		distError = bandCenter - distance; // Compute error term
+		distError = bandCenter - this.distance; // Compute error term
 		
 		int leftSpeed;
 		int rightSpeed;
@@ -0,0 +1,435 @@
+package team10.localization;
+
+import team10.navigation.Navigation;
+import team10.navigation.Odometer;
+import team10.navigation.OdometerListener;
+import team10.navigation.PoseHistory;
+import team10.navigation.PoseIntegrator;
+
+/**
+ * Extended Kalman filter on the robot pose. The covariance is propagated from
+ * the wheel displacements on every odometer update, and corrected with the
+ * grid line crossings of the colour sensors and the ultrasonic wall distances.
+ * The filter starts over from the odometer whenever the odometer position is
+ * set or corrected by someone else. All the matrices are preallocated so the
+ * filter never allocates
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class PoseEstimator implements OdometerListener {
+	// variance added per cm travelled by each wheel (cm^2/cm)
+	private static final double WHEEL_NOISE = 0.02;
+	private static final double LINE_VARIANCE = 0.25;
+	private static final double WALL_VARIANCE = 4.0;
+	private static final double INITIAL_POSITION_VARIANCE = 1.0;
+	private static final double INITIAL_THETA_VARIANCE = 0.0005;
+	// chi-square gate for one degree of freedom, 3 sigma
+	private static final double GATE = 9.0;
+	// a crossing this close to both lines is at an intersection
+	private static final double INTERSECTION_RADIUS = 3.0;
+	private static final double FIELD_SIZE = 12*Navigation.getTileSize();
+	private static final double US_OFFSET = 6.0;
+	private static final double MAX_WALL_RANGE = 150;
+	private static final double MIN_WALL_COSINE = 0.7;
+	private static final int TRACK_SIZE = 128;
+	private static final boolean[] ALL = { true, true, true };
+
+	private final Odometer odometer;
+	private final double wheelBase;
+
+	// state {x, y, theta} and row-major 3x3 covariance
+	private final double[] state;
+	private final double[] covariance;
+
+	// scratch matrices, only used under the estimator lock
+	private final double[] jacobian, control, product;
+	private final double[] observation, gain, projection;
+
+	// dead reckoning that is never corrected, to get the motion since a sample
+	private final PoseHistory track;
+	private final double[] raw, then, delta, seed;
+
+	// odometer jump count the state was last seeded or written at
+	private long seenJumps;
+
+	private volatile boolean correctOdometer;
+	private volatile int accepted, rejected;
+
+	/**
+	 *  Constructor, the estimator starts on the current odometer position
+	 *
+	 * 	@param Odometer odometer
+	 *  @since 1.0
+	 */
+	public PoseEstimator(Odometer odometer) {
+		this.odometer = odometer;
+		this.wheelBase = Odometer.getWheelBase();
+		this.state = new double[3];
+		this.covariance = new double[9];
+		this.jacobian = new double[9];
+		this.control = new double[6];
+		this.product = new double[9];
+		this.observation = new double[3];
+		this.gain = new double[3];
+		this.projection = new double[3];
+		this.track = new PoseHistory(TRACK_SIZE);
+		this.raw = new double[3];
+		this.then = new double[3];
+		this.delta = new double[3];
+		this.seed = new double[3];
+		this.correctOdometer = false;
+		reset();
+	}
+
+	/**
+	 *  Restart the filter on the current odometer position
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void reset() {
+		double[] position = new double[3];
+		odometer.getPosition(position, ALL);
+		reset(position[0], position[1], position[2], INITIAL_POSITION_VARIANCE, INITIAL_THETA_VARIANCE);
+	}
+
+	/**
+	 *  Restart the filter on a known position
+	 *
+	 * 	@param double x
+	 * 	@param double y
+	 * 	@param double theta - in rads
+	 * 	@param double positionVariance - in cm^2
+	 * 	@param double thetaVariance - in rad^2
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void reset(double x, double y, double theta, double positionVariance, double thetaVariance) {
+		state[0] = x;
+		state[1] = y;
+		state[2] = theta;
+		for (int i = 0; i < 9; i++)
+			covariance[i] = 0;
+		covariance[0] = positionVariance;
+		covariance[4] = positionVariance;
+		covariance[8] = thetaVariance;
+		seenJumps = odometer.getJumpCount();
+		accepted = 0;
+		rejected = 0;
+	}
+
+	/**
+	 *  Prediction step, called by the odometer on every update
+	 *
+	 * 	@param double leftDist - in cm
+	 * 	@param double rightDist - in cm
+	 * 	@param long timestamp - Clock.nanoTime() of the update
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void odometerUpdated(double leftDist, double rightDist, long timestamp) {
+		PoseIntegrator.step(PoseIntegrator.Mode.ARC, raw, leftDist, rightDist, wheelBase);
+		track.record(timestamp, raw[0], raw[1], raw[2]);
+
+		// The odometer was set elsewhere, start over from it. Only done here so
+		// the position read already includes this update
+		long jumps = odometer.getJumpCount();
+		if (jumps != seenJumps) {
+			odometer.getPosition(seed, ALL);
+			state[0] = seed[0];
+			state[1] = seed[1];
+			state[2] = seed[2];
+			for (int i = 0; i < 9; i++)
+				covariance[i] = 0;
+			covariance[0] = INITIAL_POSITION_VARIANCE;
+			covariance[4] = INITIAL_POSITION_VARIANCE;
+			covariance[8] = INITIAL_THETA_VARIANCE;
+			seenJumps = jumps;
+			return;
+		}
+		if (leftDist == 0 && rightDist == 0)
+			return;
+
+		double distance = (rightDist + leftDist)/2;
+		double dTheta = (rightDist - leftDist)/wheelBase;
+		double heading = state[2] + dTheta/2;
+		double cos = Math.cos(heading);
+		double sin = Math.sin(heading);
+
+		// F, jacobian of the motion with respect to the state
+		jacobian[0] = 1; jacobian[1] = 0; jacobian[2] = -distance*sin;
+		jacobian[3] = 0; jacobian[4] = 1; jacobian[5] = distance*cos;
+		jacobian[6] = 0; jacobian[7] = 0; jacobian[8] = 1;
+
+		// G, jacobian of the motion with respect to {leftDist, rightDist}
+		control[0] = cos/2 + distance*sin/(2*wheelBase);
+		control[1] = cos/2 - distance*sin/(2*wheelBase);
+		control[2] = sin/2 - distance*cos/(2*wheelBase);
+		control[3] = sin/2 + distance*cos/(2*wheelBase);
+		control[4] = -1/wheelBase;
+		control[5] = 1/wheelBase;
+
+		PoseIntegrator.step(PoseIntegrator.Mode.ARC, state, leftDist, rightDist, wheelBase);
+
+		// P = F P F' + G Q G', Q = diag(k|dL|, k|dR|)
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				double sum = 0;
+				for (int k = 0; k < 3; k++)
+					sum += jacobian[i*3 + k]*covariance[k*3 + j];
+				product[i*3 + j] = sum;
+			}
+		}
+		double leftNoise = WHEEL_NOISE*Math.abs(leftDist);
+		double rightNoise = WHEEL_NOISE*Math.abs(rightDist);
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				double sum = 0;
+				for (int k = 0; k < 3; k++)
+					sum += product[i*3 + k]*jacobian[j*3 + k];
+				sum += control[i*2]*leftNoise*control[j*2] + control[i*2 + 1]*rightNoise*control[j*2 + 1];
+				covariance[i*3 + j] = sum;
+			}
+		}
+	}
+
+	/**
+	 *  Correction step for a grid line seen by a colour sensor. The line is
+	 *  associated with the most likely grid line, rejected near intersections
+	 *
+	 * 	@param boolean left - true for the left colour sensor
+	 * 	@param long timestamp - Clock.nanoTime() of the colour sample
+	 *  @return boolean accepted - false if the crossing was gated out or the odometer was just set
+	 *  @since 1.0
+	 */
+	public synchronized boolean updateLineCrossing(boolean left, long timestamp) {
+		if (!motionSince(timestamp))
+			return false;
+
+		double tile = Navigation.getTileSize();
+		double forward = LightLocalizer.SENSOR_OFFSET;
+		double lateral = left ? LightLocalizer.SENSOR_TRACK/2 : -LightLocalizer.SENSOR_TRACK/2;
+
+		// sensor position when the sample was taken
+		double theta = state[2] - delta[2];
+		double cos = Math.cos(theta);
+		double sin = Math.sin(theta);
+		double sensorX = state[0] - delta[0] + forward*cos - lateral*sin;
+		double sensorY = state[1] - delta[1] + forward*sin + lateral*cos;
+
+		// vertical line, h = sensorX
+		double innovationX = Math.round(sensorX/tile)*tile - sensorX;
+		double distanceX = innovationX*innovationX/innovationVariance(1, 0, -forward*sin - lateral*cos, LINE_VARIANCE);
+
+		// horizontal line, h = sensorY
+		double innovationY = Math.round(sensorY/tile)*tile - sensorY;
+		double distanceY = innovationY*innovationY/innovationVariance(0, 1, forward*cos - lateral*sin, LINE_VARIANCE);
+
+		// both lines likely and close: at an intersection, ambiguous
+		if (distanceX < GATE && distanceY < GATE && Math.abs(innovationX) < INTERSECTION_RADIUS && Math.abs(innovationY) < INTERSECTION_RADIUS) {
+			rejected++;
+			return false;
+		}
+		if (distanceX <= distanceY)
+			return correct(1, 0, -forward*sin - lateral*cos, innovationX, LINE_VARIANCE);
+		return correct(0, 1, forward*cos - lateral*sin, innovationY, LINE_VARIANCE);
+	}
+
+	/**
+	 *  Correction step for an ultrasonic distance to the field walls
+	 *
+	 * 	@param double distance - the distance read in cm
+	 * 	@param long timestamp - Clock.nanoTime() of the ultrasonic sample
+	 *  @return boolean accepted - false if the wall is out of range or the reading was gated out
+	 *  @since 1.0
+	 */
+	public synchronized boolean updateWallDistance(double distance, long timestamp) {
+		if (!motionSince(timestamp))
+			return false;
+
+		double x = state[0] - delta[0];
+		double y = state[1] - delta[1];
+		double theta = state[2] - delta[2];
+		double cos = Math.cos(theta);
+		double sin = Math.sin(theta);
+
+		// distance along the heading to the vertical and horizontal walls
+		double wallX = cos > 0 ? FIELD_SIZE : 0;
+		double wallY = sin > 0 ? FIELD_SIZE : 0;
+		double rangeX = Math.abs(cos) >= MIN_WALL_COSINE ? (wallX - x)/cos - US_OFFSET : Double.MAX_VALUE;
+		double rangeY = Math.abs(sin) >= MIN_WALL_COSINE ? (wallY - y)/sin - US_OFFSET : Double.MAX_VALUE;
+
+		if (rangeX <= rangeY && rangeX < MAX_WALL_RANGE)
+			return correct(-1/cos, 0, (wallX - x)*sin/(cos*cos), distance - rangeX, WALL_VARIANCE);
+		if (rangeY < rangeX && rangeY < MAX_WALL_RANGE)
+			return correct(0, -1/sin, -(wallY - y)*cos/(sin*sin), distance - rangeY, WALL_VARIANCE);
+
+		// the wall hit by the sensor is too far or too oblique
+		rejected++;
+		return false;
+	}
+
+	/**
+	 *  Get the motion between a past time and the state into delta, from
+	 *  the uncorrected track turned into the frame of the state so the
+	 *  corrections applied in between do not count as motion. Must hold the
+	 *  lock
+	 *
+	 * 	@param long timestamp - Clock.nanoTime() in the past
+	 *  @return boolean found - false if the odometer was set since or the time is too old, the measurement is rejected then
+	 *  @since 1.0
+	 */
+	private boolean motionSince(long timestamp) {
+		if (odometer.getJumpCount() != seenJumps) {
+			rejected++;
+			return false;
+		}
+		if (timestamp >= track.getLatestTimestamp()) {
+			// taken after the last update, the state is the closest
+			delta[0] = 0;
+			delta[1] = 0;
+			delta[2] = 0;
+			return true;
+		}
+		if (!track.poseAt(timestamp, then, PoseHistory.Interpolation.ARC)) {
+			rejected++;
+			return false;
+		}
+		double dx = raw[0] - then[0];
+		double dy = raw[1] - then[1];
+		double rotation = state[2] - raw[2];
+		double cos = Math.cos(rotation);
+		double sin = Math.sin(rotation);
+		delta[0] = dx*cos - dy*sin;
+		delta[1] = dx*sin + dy*cos;
+		delta[2] = Math.IEEEremainder(raw[2] - then[2], 2*Math.PI);
+		return true;
+	}
+
+	/**
+	 *  Variance of the innovation for a scalar measurement, must hold the lock
+	 *
+	 * 	@param double hx - observation row, x term
+	 * 	@param double hy - observation row, y term
+	 * 	@param double htheta - observation row, theta term
+	 * 	@param double variance - measurement variance
+	 *  @return double variance - H P H' + R
+	 *  @since 1.0
+	 */
+	private double innovationVariance(double hx, double hy, double htheta, double variance) {
+		observation[0] = hx;
+		observation[1] = hy;
+		observation[2] = htheta;
+		double sum = variance;
+		for (int i = 0; i < 3; i++)
+			for (int j = 0; j < 3; j++)
+				sum += observation[i]*covariance[i*3 + j]*observation[j];
+		return sum;
+	}
+
+	/**
+	 *  Scalar Kalman update, must hold the lock
+	 *
+	 * 	@param double hx - observation row, x term
+	 * 	@param double hy - observation row, y term
+	 * 	@param double htheta - observation row, theta term
+	 * 	@param double innovation - measured minus predicted
+	 * 	@param double variance - measurement variance
+	 *  @return boolean accepted - false if the innovation was gated out
+	 *  @since 1.0
+	 */
+	private boolean correct(double hx, double hy, double htheta, double innovation, double variance) {
+		double s = innovationVariance(hx, hy, htheta, variance);
+		// also gates out a reading that is not a number
+		if (!(innovation*innovation/s <= GATE)) {
+			rejected++;
+			return false;
+		}
+
+		// P H' and K = P H' / S
+		for (int i = 0; i < 3; i++) {
+			double sum = 0;
+			for (int j = 0; j < 3; j++)
+				sum += covariance[i*3 + j]*observation[j];
+			projection[i] = sum;
+			gain[i] = sum/s;
+		}
+
+		state[0] += gain[0]*innovation;
+		state[1] += gain[1]*innovation;
+		state[2] += gain[2]*innovation;
+		if (state[2] >= 2*Math.PI)
+			state[2] -= 2*Math.PI;
+		else if (state[2] < 0)
+			state[2] += 2*Math.PI;
+
+		// P = P - K (H P), symmetric so H P = (P H')'
+		for (int i = 0; i < 3; i++)
+			for (int j = 0; j < 3; j++)
+				covariance[i*3 + j] -= gain[i]*projection[j];
+
+		// Shift the odometer by the same correction, dropped if it was set in the meantime
+		accepted++;
+		if (correctOdometer && odometer.correct(gain[0]*innovation, gain[1]*innovation, gain[2]*innovation, seenJumps))
+			seenJumps++;
+		return true;
+	}
+
+	/**
+	 *  Mutator
+	 *
+	 *  @param boolean correctOdometer - if true, every accepted correction is written to the odometer
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void setCorrectOdometer(boolean correctOdometer) {
+		this.correctOdometer = correctOdometer;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @param double[] position - {x, y, theta} output
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void getPosition(double[] position) {
+		position[0] = state[0];
+		position[1] = state[1];
+		position[2] = state[2];
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @param double[] covariance - row-major 3x3 output
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void getCovariance(double[] covariance) {
+		System.arraycopy(this.covariance, 0, covariance, 0, 9);
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return int accepted - the number of measurements applied since the last reset
+	 *  @since 1.0
+	 */
+	public int getAccepted() {
+		return accepted;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return int rejected - the number of measurements gated out since the last reset
+	 *  @since 1.0
+	 */
+	public int getRejected() {
+		return rejected;
+	}
+}
@@ -0,0 +1,31 @@
+package team10.localization;
+
+/**
+ * One stage of a sensor filter. A stage takes the samples one at a time and
+ * keeps its state in buffers sized at construction, so filtering a sample
+ * allocates nothing. Stages are chained with FilterChain
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public interface SampleFilter {
+
+	/**
+	 *  Filter the next sample
+	 *
+	 * 	@param float sample - the raw sample
+	 *  @return float filtered - the filtered sample
+	 *  @since 1.0
+	 */
+	float filter(float sample);
+
+	/**
+	 *  Forget the previous samples
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void reset();
+}
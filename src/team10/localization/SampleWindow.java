@@ -0,0 +1,109 @@
+package team10.localization;
+
+/**
+ * The last samples of a filter in a ring buffer, with a sorted copy kept up
+ * to date for the median. Adding a sample shifts at most the window length
+ * and allocates nothing
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+class SampleWindow {
+	private final float[] ring, sorted;
+	private int head, count;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param int length - the number of samples kept
+	 *  @since 1.0
+	 */
+	SampleWindow(int length) {
+		if (length < 1)
+			throw new IllegalArgumentException("Window length must be positive");
+		this.ring = new float[length];
+		this.sorted = new float[length];
+	}
+
+	/**
+	 *  Add a sample, dropping the oldest one once the window is full
+	 *
+	 * 	@param float sample
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void add(float sample) {
+		int index;
+		if (count == ring.length) {
+			// Take the oldest sample out of the sorted copy, compared by bits so a NaN is found too
+			int oldest = Float.floatToIntBits(ring[head]);
+			int i = 0;
+			while (i < count - 1 && Float.floatToIntBits(sorted[i]) != oldest)
+				i++;
+			System.arraycopy(sorted, i + 1, sorted, i, count - 1 - i);
+			ring[head] = sample;
+			head = (head + 1) % ring.length;
+			index = count - 1;
+		} else {
+			ring[(head + count) % ring.length] = sample;
+			index = count;
+			count++;
+		}
+
+		// Insertion into the sorted copy
+		while (index > 0 && sorted[index - 1] > sample) {
+			sorted[index] = sorted[index - 1];
+			index--;
+		}
+		sorted[index] = sample;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return float median - of the samples in the window, the mean of the middle two for an even count
+	 *  @since 1.0
+	 */
+	float median() {
+		if (count == 0)
+			return Float.NaN;
+		int middle = count/2;
+		if (count % 2 == 1)
+			return sorted[middle];
+		return (sorted[middle - 1] + sorted[middle])/2;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 * 	@param int i - 0 for the oldest sample
+	 *  @return float sample
+	 *  @since 1.0
+	 */
+	float get(int i) {
+		return ring[(head + i) % ring.length];
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return int count - the samples in the window
+	 *  @since 1.0
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 *  Empty the window
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void clear() {
+		head = 0;
+		count = 0;
+	}
+}
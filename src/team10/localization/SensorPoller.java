@@ -0,0 +1,388 @@
+package team10.localization;
+
+import lejos.robotics.SampleProvider;
+import team10.navigation.Clock;
+
+/**
+ * Samples the sensors on a dedicated thread, each at its own rate. The
+ * latest sample of a sensor is published with its time in a slot that is
+ * read without locks, and optionally in a history ring. The consumers read
+ * the slot or block on the channel instead of fetching from the hardware
+ * on their own thread
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class SensorPoller extends Thread {
+	private static final long NANOS_PER_MILLI = 1000000;
+	private static final long MIN_FETCH_TIMEOUT = 100;
+	private static final int FETCH_TIMEOUT_PERIODS = 10;
+	private static final long IDLE_SLEEP = 20;
+
+	private final Object lock = new Object();
+	private volatile Channel[] channels = new Channel[0];
+
+	/**
+	 * One sensor registered with the poller. It is a SampleProvider itself,
+	 * fetchSample waits for the next sample instead of reading the sensor
+	 */
+	public static class Channel implements SampleProvider {
+		private final SampleProvider provider;
+		private final int size;
+		private volatile long period;
+		private long due;
+
+		// latest sample, the sequence is odd while it is being written
+		private final float[] fetched;
+		private final float[] latest;
+		private volatile long latestTime;
+		private volatile long sequence;
+
+		// history ring, count is published after the sample is written
+		private final int capacity;
+		private final float[] values;
+		private final long[] times;
+		private volatile long count;
+
+		// statistics, written by the poller thread only
+		private volatile long samples, firstTime;
+		private volatile long totalLatency, maxLatency;
+
+		// the last sample returned by fetchSample, for its single consumer
+		private long lastFetched;
+		private long fetchedTime = Long.MIN_VALUE;
+
+		private Channel(SampleProvider provider, long period, int capacity) {
+			this.provider = provider;
+			this.size = provider.sampleSize();
+			this.period = period*NANOS_PER_MILLI;
+			this.fetched = new float[size];
+			this.latest = new float[size];
+			this.capacity = capacity;
+			this.values = new float[capacity*size];
+			this.times = new long[capacity];
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return int size - the values in a sample
+		 *  @since 1.0
+		 */
+		public int sampleSize() {
+			return size;
+		}
+
+		/**
+		 *  Wait for a sample newer than the one this method returned last and
+		 *  copy it. Meant for one consumer per channel, the others use read.
+		 *  If the poller stalls, the latest sample is returned after ten
+		 *  periods
+		 *
+		 * 	@param float[] sample - output
+		 * 	@param int offset - of the first value in the output
+		 *  @return No return value
+		 *  @since 1.0
+		 */
+		public void fetchSample(float[] sample, int offset) {
+			long timeout = Math.max(MIN_FETCH_TIMEOUT, FETCH_TIMEOUT_PERIODS*period/NANOS_PER_MILLI);
+			awaitSample(lastFetched, timeout);
+			while (true) {
+				long before = sequence;
+				if ((before & 1) != 0) {
+					Thread.yield();
+					continue;
+				}
+				long time = latestTime;
+				System.arraycopy(latest, 0, sample, offset, size);
+				if (sequence == before) {
+					lastFetched = before;
+					fetchedTime = before == 0 ? Long.MIN_VALUE : time;
+					return;
+				}
+			}
+		}
+
+		/**
+		 *  Copy the latest sample without waiting
+		 *
+		 * 	@param float[] sample - output
+		 * 	@param int offset - of the first value in the output
+		 *  @return long timestamp - Clock.nanoTime() in the middle of the fetch, Long.MIN_VALUE if there is no sample yet
+		 *  @since 1.0
+		 */
+		public long read(float[] sample, int offset) {
+			while (true) {
+				long before = sequence;
+				if ((before & 1) != 0) {
+					Thread.yield();
+					continue;
+				}
+				long time = latestTime;
+				System.arraycopy(latest, 0, sample, offset, size);
+				if (sequence == before)
+					return before == 0 ? Long.MIN_VALUE : time;
+			}
+		}
+
+		/**
+		 *  Block until a sample newer than a sequence number is published
+		 *
+		 * 	@param long sequence - the sequence already seen, 0 for none
+		 * 	@param long timeout - in ms
+		 *  @return long sequence - the latest sequence number, unchanged on a timeout
+		 *  @since 1.0
+		 */
+		public long awaitSample(long sequence, long timeout) {
+			long deadline = System.currentTimeMillis() + timeout;
+			synchronized (this) {
+				long left = timeout;
+				while (this.sequence <= sequence && left > 0) {
+					try {
+						wait(left);
+					} catch (InterruptedException e) {
+						// give up waiting, the caller gets the latest sample
+						break;
+					}
+					left = deadline - System.currentTimeMillis();
+				}
+			}
+			return this.sequence;
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return long sequence - even, grows with every sample published
+		 *  @since 1.0
+		 */
+		public long getSequence() {
+			long current = sequence;
+			return current - (current & 1);
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return long timestamp - Clock.nanoTime() of the sample fetchSample returned last, Long.MIN_VALUE if none
+		 *  @since 1.0
+		 */
+		public long getFetchedTimestamp() {
+			return fetchedTime;
+		}
+
+		/**
+		 *  Copy a sample from the history
+		 *
+		 * 	@param int age - 0 for the newest sample
+		 * 	@param float[] sample - output
+		 * 	@param int offset - of the first value in the output
+		 *  @return long timestamp - of the sample, Long.MIN_VALUE if it is no longer or not yet in the history
+		 *  @since 1.0
+		 */
+		public long getHistory(int age, float[] sample, int offset) {
+			long c = count;
+
+			// keep one slot of margin for the sample being written
+			if (age < 0 || age >= c || age >= capacity - 1)
+				return Long.MIN_VALUE;
+			int slot = (int) ((c - 1 - age)%capacity);
+			long time = times[slot];
+			System.arraycopy(values, slot*size, sample, offset, size);
+			if (count - c >= capacity - 1 - age)
+				return Long.MIN_VALUE;
+			return time;
+		}
+
+		/**
+		 *  Mutator, takes effect from the next sample
+		 *
+		 * 	@param long period - in ms
+		 *  @return No return value
+		 *  @since 1.0
+		 */
+		public void setPeriod(long period) {
+			this.period = period*NANOS_PER_MILLI;
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return double rate - the samples per second achieved since the registration
+		 *  @since 1.0
+		 */
+		public double getSampleRate() {
+			long n = samples;
+			long last = latestTime;
+			if (n < 2 || last == firstTime)
+				return 0;
+			return (n - 1)*1e9/(last - firstTime);
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return double latency - the mean time the sensor takes to return a sample, in ms
+		 *  @since 1.0
+		 */
+		public double getMeanLatency() {
+			long n = samples;
+			return n == 0 ? 0 : (double) totalLatency/n/NANOS_PER_MILLI;
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return double latency - the longest time the sensor took to return a sample, in ms
+		 *  @since 1.0
+		 */
+		public double getMaxLatency() {
+			return (double) maxLatency/NANOS_PER_MILLI;
+		}
+
+		/**
+		 *  Fetch from the sensor and publish, called by the poller thread
+		 *
+		 *  @return No return value
+		 *  @since 1.0
+		 */
+		private void poll() {
+			long start = Clock.nanoTime();
+			provider.fetchSample(fetched, 0);
+			long end = Clock.nanoTime();
+			long time = start + (end - start)/2;
+
+			long current = sequence;
+			sequence = current + 1;
+			System.arraycopy(fetched, 0, latest, 0, size);
+			latestTime = time;
+			sequence = current + 2;
+
+			if (capacity > 0) {
+				long index = count;
+				int slot = (int) (index%capacity);
+				times[slot] = time;
+				System.arraycopy(fetched, 0, values, slot*size, size);
+				count = index + 1;
+			}
+
+			if (samples == 0)
+				firstTime = time;
+			samples++;
+			long latency = end - start;
+			totalLatency += latency;
+			if (latency > maxLatency)
+				maxLatency = latency;
+
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 *  Constructor, the poller runs as a daemon once started
+	 *
+	 *  @since 1.0
+	 */
+	public SensorPoller() {
+		setDaemon(true);
+	}
+
+	/**
+	 *  Poll a sensor
+	 *
+	 * 	@param SampleProvider provider - the sensor mode
+	 * 	@param long period - between two samples in ms
+	 * 	@param int history - the samples kept in the history, 0 for none
+	 *  @return Channel channel - to read the samples
+	 *  @since 1.0
+	 */
+	public Channel register(SampleProvider provider, long period, int history) {
+		Channel channel = new Channel(provider, period, history);
+		channel.due = Clock.nanoTime();
+		synchronized (lock) {
+			Channel[] grown = new Channel[channels.length + 1];
+			System.arraycopy(channels, 0, grown, 0, channels.length);
+			grown[channels.length] = channel;
+			channels = grown;
+		}
+		return channel;
+	}
+
+	/**
+	 *  Stop polling a sensor, its last samples can still be read
+	 *
+	 * 	@param Channel channel
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void unregister(Channel channel) {
+		synchronized (lock) {
+			Channel[] current = channels;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i] == channel) {
+					Channel[] shrunk = new Channel[current.length - 1];
+					System.arraycopy(current, 0, shrunk, 0, i);
+					System.arraycopy(current, i + 1, shrunk, i, current.length - 1 - i);
+					channels = shrunk;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 *  Run the poller, fetches every channel that is due then sleeps until
+	 *  the next one. A channel late by a period or more skips the missed
+	 *  samples instead of fetching them back to back
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void run() {
+		while (true) {
+			Channel[] current = channels;
+			if (current.length == 0) {
+				Clock.sleep(IDLE_SLEEP);
+				continue;
+			}
+
+			long remaining = Long.MAX_VALUE;
+			for (int i = 0; i < current.length; i++) {
+				Channel channel = current[i];
+				if (Clock.nanoTime() - channel.due >= 0) {
+					channel.poll();
+					long period = channel.period;
+					long late = (Clock.nanoTime() - channel.due)/period;
+					channel.due += (late + 1)*period;
+				}
+				remaining = Math.min(remaining, channel.due - Clock.nanoTime());
+			}
+
+			if (remaining > 0)
+				Clock.sleep((remaining + NANOS_PER_MILLI - 1)/NANOS_PER_MILLI);
+		}
+	}
+
+	/**
+	 *  Time a sample was taken. The poller knows it for its channels, a
+	 *  sensor read directly is taken as sampled halfway through the fetch
+	 *
+	 * 	@param SampleProvider sensor - the sensor the sample was fetched from
+	 * 	@param long start - Clock.nanoTime() before fetchSample
+	 * 	@param long end - Clock.nanoTime() after fetchSample
+	 *  @return long timestamp - Clock.nanoTime() of the sample
+	 *  @since 1.0
+	 */
+	public static long sampleTime(SampleProvider sensor, long start, long end) {
+		if (sensor instanceof Channel) {
+			long time = ((Channel) sensor).getFetchedTimestamp();
+			if (time != Long.MIN_VALUE)
+				return time;
+		}
+		return start + (end - start)/2;
+	}
+}
@@ -1,22 +1,30 @@
 package team10.localization;
 
 import lejos.robotics.SampleProvider;
+import team10.navigation.Clock;
 import team10.navigation.Navigation;
 import team10.navigation.Odometer;
+import team10.telemetry.TelemetryRecorder;
 
 /**
  * Handles the ultrasonic sensor localization routine
  * 
  * @author Mathieu Tougas
- * @version 1.0
+ * @version 1.1
  * 
  */
 
 public class USLocalizer {
-	public enum LocalizationType { FALLING_EDGE, RISING_EDGE };
+	public enum LocalizationType { FALLING_EDGE, RISING_EDGE, SINGLE_SWEEP };
 	public static float distance;
 	public static double angleA, angleB, theta;
 	private final int BANDWIDTH = 5;
+	private static final int SWEEP_SPEED = 2*Navigation.getTurnSpeed();
+	private static final int SWEEP_CAPACITY = 1024;
+	private static final int EDGE_SAMPLES = 3;
+	private static final double SWEEP_ANGLE = 2*Math.PI;
+	private static final long SWEEP_TIMEOUT = 20000;
+	private static final int MEDIAN_LENGTH = 3;
 
 	private Odometer odo;
 	private Navigation navigation;
@@ -25,6 +33,13 @@ public class USLocalizer {
 	private LocalizationType locType;
 	private float bandCenter = 50;
     private float distError, turnSpeed;
+    private final SampleFilter usFilter = new MedianFilter(MEDIAN_LENGTH);
+    
+	// single sweep samples, the heading is unwrapped in rads
+	private final double[] sweepAngles = new double[SWEEP_CAPACITY];
+	private final float[] sweepDistances = new float[SWEEP_CAPACITY];
+	private int sweepCount;
+	private final double[] pose = new double[3];
 	
 	/**
 	 * Constructor method
@@ -55,8 +70,26 @@ public class USLocalizer {
 		angleA = 0; 
 		angleB = 0;
 		theta = 0;
+		usFilter.reset();
 		
-		if (locType == LocalizationType.FALLING_EDGE) {
+		if (locType == LocalizationType.SINGLE_SWEEP) {
+			// one fast clockwise turn, the edges are found in the samples afterwards
+			sweep();
+			if (!findEdges()) {
+				System.err.println("Error: no wall edges in the ultrasonic sweep");
+				return;
+			}
+			
+			// get theta, turn to it and update position, as for the falling edges
+			theta = getStartingAngle(angleA, angleB);
+			theta = -theta;
+			if(theta <= 0) {
+				theta = theta +360;
+			}
+			navigation.turnTo(theta, true);
+			odo.setPosition(new double [] {0.0, 0.0, 0.0}, new boolean [] {true, true, true});
+			
+		} else if (locType == LocalizationType.FALLING_EDGE) {
 			navigation.setSpeeds(turnSpeed,-turnSpeed);
 
 			// rotate the robot until it sees no wall
@@ -136,6 +169,145 @@ public class USLocalizer {
 		}
 	}
 	
+	/**
+	 *  Spin a full turn clockwise and record the distances with the heading
+	 *  at the time of each reading. Nothing is decided while turning, so
+	 *  it can spin faster than the latching routines. The median delays the
+	 *  edges by half its window, so each distance goes with the heading of
+	 *  the reading that many samples before
+	 * 
+	 *  @return No return value
+	 *  @since 1.1
+	 */
+	private void sweep(){
+		sweepCount = 0;
+		double start = odo.getTheta();
+		double previous = start;
+		double unwrapped = start;
+		long deadline = Clock.nanoTime() + SWEEP_TIMEOUT*1000000;
+		
+		navigation.setSpeeds(SWEEP_SPEED, -SWEEP_SPEED);
+		while (start - unwrapped < SWEEP_ANGLE && sweepCount < SWEEP_CAPACITY && Clock.nanoTime() < deadline) {
+			long sampleStart = Clock.nanoTime();
+			float sample = getFilteredData();
+			long sampleEnd = Clock.nanoTime();
+			
+			// heading when the sample was taken, unwrapped across 0
+			double current = headingAt(SensorPoller.sampleTime(usSensor, sampleStart, sampleEnd));
+			double step = current - previous;
+			if (step > Math.PI)
+				step -= 2*Math.PI;
+			else if (step < -Math.PI)
+				step += 2*Math.PI;
+			unwrapped += step;
+			previous = current;
+			
+			sweepAngles[sweepCount] = unwrapped;
+			if (sweepCount >= MEDIAN_LENGTH/2)
+				sweepDistances[sweepCount - MEDIAN_LENGTH/2] = sample;
+			sweepCount++;
+		}
+		navigation.setSpeeds(0,0);
+		sweepCount = Math.max(0, sweepCount - MEDIAN_LENGTH/2);
+	}
+	
+	/**
+	 *  Heading at the time of a sample, from the odometer history
+	 * 
+	 * 	@param long timestamp - Clock.nanoTime() of the sample
+	 *  @return double heading - in rads, the current one if the history does not cover the time
+	 *  @since 1.1
+	 */
+	private double headingAt(long timestamp){
+		if (odo.poseAt(timestamp, pose))
+			return pose[2];
+		return odo.getTheta();
+	}
+	
+	/**
+	 *  Find the wall in the sweep, the longest run of samples closer than the
+	 *  band. It starts with the falling edge (angleA) and ends with the edge
+	 *  the counterclockwise spin would have latched (angleB). The edges are
+	 *  interpolated between the samples on each side of the band, and the
+	 *  sweep wraps around since it covers a full turn
+	 * 
+	 *  @return boolean found - false if there is no wall of EDGE_SAMPLES samples
+	 *  @since 1.1
+	 */
+	private boolean findEdges(){
+		int count = sweepCount;
+		float level = bandCenter - BANDWIDTH;
+		if (count < 2*EDGE_SAMPLES)
+			return false;
+		
+		// start the search at a sample away from the wall
+		int origin = -1;
+		for (int i = 0; i < count; i++) {
+			if (sweepDistances[i] >= level) {
+				origin = i;
+				break;
+			}
+		}
+		if (origin < 0)
+			return false;
+		
+		int bestStart = -1, bestLength = 0;
+		int runStart = -1;
+		for (int k = 1; k <= count; k++) {
+			int i = (origin + k) % count;
+			if (sweepDistances[i] < level) {
+				if (runStart < 0)
+					runStart = k;
+			} else if (runStart >= 0) {
+				if (k - runStart > bestLength) {
+					bestLength = k - runStart;
+					bestStart = runStart;
+				}
+				runStart = -1;
+			}
+		}
+		if (bestLength < EDGE_SAMPLES)
+			return false;
+		
+		angleA = normalizeDegrees(crossing(origin + bestStart - 1, level));
+		angleB = normalizeDegrees(crossing(origin + bestStart + bestLength - 1, level));
+		return true;
+	}
+	
+	/**
+	 *  Heading where the distance crosses a level between two samples
+	 * 
+	 *  @param int index - the sample before the crossing, wraps around the sweep
+	 *  @param float level - in cm
+	 *  @return double angle - in degrees
+	 *  @since 1.1
+	 */
+	private double crossing(int index, float level){
+		int count = sweepCount;
+		int i = index % count;
+		int j = (index + 1) % count;
+		double angleI = sweepAngles[i];
+		
+		// past the end of the sweep, the first samples are one turn further
+		double angleJ = j > i ? sweepAngles[j] : sweepAngles[j] - SWEEP_ANGLE;
+		double ratio = (level - sweepDistances[i])/(sweepDistances[j] - sweepDistances[i]);
+		return (angleI + ratio*(angleJ - angleI))*180/Math.PI;
+	}
+	
+	/**
+	 *  Angle in [0, 360)
+	 * 
+	 *  @param double angle - in degrees
+	 *  @return double angle - in degrees
+	 *  @since 1.1
+	 */
+	private static double normalizeDegrees(double angle){
+		angle %= 360;
+		if (angle < 0)
+			angle += 360;
+		return angle;
+	}
+	
 	/**
 	 *  Turns the robot until the sensors don't detect a wall anymore
 	 * 
@@ -177,14 +349,16 @@ public class USLocalizer {
 	}
 	
 	/**
-	 *  Get filtered data from US Sensor
+	 *  Get filtered data from US Sensor, the median of the last readings
+	 *  drops single echo spikes
 	 * 
 	 *  @return float distance - the distance read by the US sensor
 	 *  @since 1.0
 	 */
 	private float getFilteredData() {
 		usSensor.fetchSample(usData, 0);
-		float distance = usData[0]*100;
+		TelemetryRecorder.recordUltrasonic(usData[0]);
+		float distance = usFilter.filter(usData[0]*100);
 		
 		if (distance > 60)
 			distance = 60;
@@ -1,23 +1,26 @@
 package team10.localization;
 
 import lejos.robotics.SampleProvider;
+import team10.navigation.Clock;
 
 /**
- * Ultrasonic poller thread for object avoidance
+ * Ultrasonic poller thread for object avoidance, and for the wall distances
+ * of the pose estimator
  * 
  * @author Mathieu Tougas
- * @version 1.0
+ * @version 2.0
  * 
  */
 public class UltrasonicPoller extends Thread{
 	private SampleProvider us;
 	private PController cont;
+	private PoseEstimator estimator;
 	private float[] usData;
 	
 	/**
 	 *  Constructor
 	 * 
-	 * 	@param SampleProvider us
+	 * 	@param SampleProvider us - the sensor, or a SensorPoller channel to sample at its rate
 	 *  @param float[] usData
 	 *  @param PController cont
 	 *  @since 1.0
@@ -27,6 +30,21 @@ public class UltrasonicPoller extends Thread{
 		this.cont = cont;
 		this.usData = usData;
 	}
+	
+	/**
+	 *  Constructor, feeds the wall distances to an estimator
+	 * 
+	 * 	@param SampleProvider us - the sensor, or a SensorPoller channel to sample at its rate
+	 *  @param float[] usData
+	 *  @param PoseEstimator estimator
+	 *  @since 2.0
+	 */
+	public UltrasonicPoller(SampleProvider us, float[] usData, PoseEstimator estimator) {
+		this.us = us;
+		this.estimator = estimator;
+		this.usData = usData;
+		setDaemon(true);
+	}
 
 	/**
 	 *  Run the ultrasonic poller
@@ -37,10 +55,17 @@ public class UltrasonicPoller extends Thread{
 	public void run() {
 		int distance;
 		while (true) {
+			long start = Clock.nanoTime();
 			us.fetchSample(usData,0);							// acquire data
+			long end = Clock.nanoTime();
 			distance=(int)(usData[0]*100.0);					// extract from buffer, cast to int
-			cont.processUSData(distance);						// now take action depending on value
-			try { Thread.sleep(50); } catch(Exception e){}		// Poor man's timed sampling
+			if (cont != null)
+				cont.processUSData(distance);					// now take action depending on value
+			if (estimator != null)
+				estimator.updateWallDistance(usData[0]*100.0, SensorPoller.sampleTime(us, start, end));
+			if (!(us instanceof SensorPoller.Channel)) {			// a channel already waits for the next sample
+				try { Thread.sleep(50); } catch(Exception e){}	// Poor man's timed sampling
+			}
 		}
 	}
 
@@ -0,0 +1,64 @@
+package team10.navigation;
+
+/**
+ * Cancels one motion call. The motion checks the token on every control
+ * tick and acknowledges it once the wheels are stopped, which gives the
+ * reaction latency
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class CancellationToken {
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private volatile boolean cancelled;
+	private volatile long cancelTime;
+	private volatile long reaction = -1;
+
+	/**
+	 *  Ask the motion to stop, the first call counts
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void cancel() {
+		if (cancelled)
+			return;
+		cancelTime = Clock.nanoTime();
+		cancelled = true;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return boolean cancelled
+	 *  @since 1.0
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 *  Called by the motion once it has stopped
+	 *
+	 *  @return long reaction - time since the cancellation in ns
+	 *  @since 1.0
+	 */
+	public long acknowledge() {
+		reaction = Clock.nanoTime() - cancelTime;
+		return reaction;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double latency - time from the cancellation to the stop in ms, -1 if not stopped yet
+	 *  @since 1.0
+	 */
+	public double getReactionLatency() {
+		long reaction = this.reaction;
+		return reaction < 0 ? -1 : reaction/NANOS_PER_MILLI;
+	}
+}
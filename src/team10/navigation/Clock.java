@@ -0,0 +1,77 @@
+package team10.navigation;
+
+/**
+ * Time source for the odometry and the localization. Uses the system time on
+ * the robot, can be replaced by a virtual time to replay recorded runs
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public abstract class Clock {
+	private static final Clock SYSTEM = new Clock() {
+		protected long now() {
+			return System.nanoTime();
+		}
+
+		protected void pause(long millis) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				// nothing to do, the caller checks the time again
+			}
+		}
+	};
+
+	private static volatile Clock clock = SYSTEM;
+
+	/**
+	 *  Get the current time
+	 *
+	 *  @return long time - in ns, only meaningful as a difference
+	 *  @since 1.0
+	 */
+	public static long nanoTime() {
+		return clock.now();
+	}
+
+	/**
+	 *  Wait for a duration
+	 *
+	 * 	@param long millis - in ms
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static void sleep(long millis) {
+		clock.pause(millis);
+	}
+
+	/**
+	 *  Replace the time source, null restores the system time
+	 *
+	 * 	@param Clock source
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static void set(Clock source) {
+		clock = source == null ? SYSTEM : source;
+	}
+
+	/**
+	 *  Current time of this source
+	 *
+	 *  @return long time - in ns
+	 *  @since 1.0
+	 */
+	protected abstract long now();
+
+	/**
+	 *  Wait on this source
+	 *
+	 * 	@param long millis - in ms
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	protected abstract void pause(long millis);
+}
@@ -9,7 +9,7 @@ import lejos.hardware.lcd.TextLCD;
  * Handles robot display
  * 
  * @author Mathieu Tougas
- * @version 1.1
+ * @version 1.2
  * 
  */
 
@@ -17,6 +17,7 @@ public class Display extends Thread {
 	private static final TextLCD lcd = LocalEV3.get().getTextLCD();
 	private static final long DISPLAY_PERIOD = 250;
 	private Odometer odometer;
+	private Navigation navigation;
 
 	/**
 	 *  Constructor
@@ -25,7 +26,19 @@ public class Display extends Thread {
 	 *  @since 1.0
 	 */
 	public Display(Odometer odometer) {
+		this(odometer, null);
+	}
+
+	/**
+	 *  Constructor
+	 * 
+	 *  @param Odometer odometer
+	 *  @param Navigation navigation - shows its last turn, may be null
+	 *  @since 1.2
+	 */
+	public Display(Odometer odometer, Navigation navigation) {
 		this.odometer = odometer;
+		this.navigation = navigation;
 	}
 
 	/**
@@ -63,6 +76,8 @@ public class Display extends Thread {
 			lcd.drawString("CalX: ", 8, 3);
 			lcd.drawString("CalY: ", 8, 4);
 			lcd.drawString("CalT: ", 8, 5);
+			lcd.drawString("Mis: ", 8, 6);
+			lcd.drawString("Jit: ", 8, 7);
 			lcd.drawString(formattedDoubleToString(position[0], 2), 3, 1);
 			lcd.drawString(formattedDoubleToString(position[1], 2), 3, 2);
 			lcd.drawString(formattedDoubleToString(position[2], 2), 3, 3);
@@ -73,7 +88,10 @@ public class Display extends Thread {
 			lcd.drawInt((int)LightLocalizer.leftColor, 15, 2);
 			lcd.drawInt((int)LightLocalizer.locX, 15, 3);
 			lcd.drawInt((int)LightLocalizer.locY, 15, 4);
-			lcd.drawString(formattedDoubleToString(Navigation.angleToTurn, 2), 15, 5);
+			if (navigation != null)
+				lcd.drawString(formattedDoubleToString(navigation.getAngleToTurn(), 2), 15, 5);
+			lcd.drawInt((int)odometer.getScheduler().getMissedDeadlines(), 15, 6);
+			lcd.drawString(formattedDoubleToString(odometer.getScheduler().getMaxJitter()/1000000.0, 1), 15, 7);
 
 			// throttle the OdometryDisplay
 			displayEnd = System.currentTimeMillis();
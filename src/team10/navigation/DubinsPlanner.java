@@ -0,0 +1,307 @@
+package team10.navigation;
+
+/**
+ * Plans the shortest arc-line-arc manoeuvre (Dubins path) between two poses
+ * for a turning radius, and compares it with turning in place. The robot can
+ * do both, so the planner keeps whichever is faster: arcs never stop a wheel,
+ * turns in place reverse one
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class DubinsPlanner {
+	private static final double EPSILON = 1e-9;
+	private static final double TWO_PI = 2*Math.PI;
+
+	private final double width;
+	private volatile double radius, reversalCost;
+
+	/**
+	 * A manoeuvre as the distances covered by each wheel, segment by segment
+	 */
+	public static class Manoeuvre {
+		private final String type;
+		private final double[] left, right;
+		private final double cost;
+
+		private Manoeuvre(String type, double[] left, double[] right, double cost) {
+			this.type = type;
+			this.left = left;
+			this.right = right;
+			this.cost = cost;
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return String type - one letter per segment, L and R for arcs, S for lines, T for turns in place
+		 *  @since 1.0
+		 */
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return int count - the number of segments
+		 *  @since 1.0
+		 */
+		public int getSegmentCount() {
+			return left.length;
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 * 	@param int segment
+		 *  @return double distance - covered by the left wheel in cm, negative backwards
+		 *  @since 1.0
+		 */
+		public double getLeftDistance(int segment) {
+			return left[segment];
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 * 	@param int segment
+		 *  @return double distance - covered by the right wheel in cm, negative backwards
+		 *  @since 1.0
+		 */
+		public double getRightDistance(int segment) {
+			return right[segment];
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return double cost - the distance of the fastest wheel plus the wheel reversals, in cm
+		 *  @since 1.0
+		 */
+		public double getCost() {
+			return cost;
+		}
+	}
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param double radius - the turning radius of the arcs in cm
+	 * 	@param double width - the robot track width in cm
+	 * 	@param double reversalCost - the distance a wheel would cover at cruise speed in the time it takes to stop and restart, in cm
+	 *  @since 1.0
+	 */
+	public DubinsPlanner(double radius, double width, double reversalCost) {
+		this.radius = radius;
+		this.width = width;
+		this.reversalCost = reversalCost;
+	}
+
+	/**
+	 *  Mutator
+	 *
+	 * 	@param double radius - the turning radius of the arcs in cm
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void setRadius(double radius) {
+		this.radius = radius;
+	}
+
+	/**
+	 *  Mutator
+	 *
+	 * 	@param double reversalCost - see the constructor
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void setReversalCost(double reversalCost) {
+		this.reversalCost = reversalCost;
+	}
+
+	/**
+	 *  Plan to a point, the final heading is free. The robot follows its
+	 *  turning circle until it faces the point, then drives straight
+	 *
+	 * 	@param double x - start x in cm
+	 * 	@param double y - start y in cm
+	 * 	@param double theta - start heading in rads
+	 * 	@param double goalX - in cm
+	 * 	@param double goalY - in cm
+	 *  @return Manoeuvre manoeuvre - the fastest one
+	 *  @since 1.0
+	 */
+	public Manoeuvre planToPoint(double x, double y, double theta, double goalX, double goalY) {
+		double radius = this.radius;
+		double dx = goalX - x;
+		double dy = goalY - y;
+
+		// Turn in place, then drive
+		Manoeuvre best = build("TS", radius, normalize(Math.atan2(dy, dx) - theta), Math.hypot(dx, dy));
+
+		// Arc to the tangent, then drive. The point must be outside the circle
+		for (int side = -1; side <= 1; side += 2) {
+			double centerX = x - side*radius*Math.sin(theta);
+			double centerY = y + side*radius*Math.cos(theta);
+			double distance = Math.hypot(goalX - centerX, goalY - centerY);
+			if (distance < radius)
+				continue;
+			double line = Math.sqrt(distance*distance - radius*radius);
+			double heading = Math.atan2(goalY - centerY, goalX - centerX) + side*Math.atan2(radius, line);
+			double sweep = mod2pi(side*(heading - theta));
+			best = cheapest(best, build(side > 0 ? "LS" : "RS", radius, sweep, line));
+		}
+		return best;
+	}
+
+	/**
+	 *  Plan to a pose. Tries the four arc-line-arc words, the arc-arc-arc ones
+	 *  are left out since turning in place beats them on short moves
+	 *
+	 * 	@param double x - start x in cm
+	 * 	@param double y - start y in cm
+	 * 	@param double theta - start heading in rads
+	 * 	@param double goalX - in cm
+	 * 	@param double goalY - in cm
+	 * 	@param double goalTheta - final heading in rads
+	 *  @return Manoeuvre manoeuvre - the fastest one
+	 *  @since 1.0
+	 */
+	public Manoeuvre plan(double x, double y, double theta, double goalX, double goalY, double goalTheta) {
+		double radius = this.radius;
+		double dx = goalX - x;
+		double dy = goalY - y;
+		double distance = Math.hypot(dx, dy);
+
+		// Turn in place, drive, turn in place
+		double heading = distance < EPSILON ? theta : Math.atan2(dy, dx);
+		Manoeuvre best = build("TST", radius, normalize(heading - theta), distance, normalize(goalTheta - heading));
+		if (radius < EPSILON)
+			return best;
+
+		// Normalized to a unit circle along the line between the poses
+		double d = distance/radius;
+		double phi = mod2pi(Math.atan2(dy, dx));
+		double a = mod2pi(theta - phi);
+		double b = mod2pi(goalTheta - phi);
+		double sa = Math.sin(a), sb = Math.sin(b), ca = Math.cos(a), cb = Math.cos(b);
+		double cab = Math.cos(a - b);
+
+		double p2 = 2 + d*d - 2*cab + 2*d*(sa - sb);
+		if (p2 >= 0) {
+			double t = Math.atan2(cb - ca, d + sa - sb);
+			best = cheapest(best, build("LSL", radius, mod2pi(t - a), Math.sqrt(p2)*radius, mod2pi(b - t)));
+		}
+
+		p2 = 2 + d*d - 2*cab + 2*d*(sb - sa);
+		if (p2 >= 0) {
+			double t = Math.atan2(ca - cb, d - sa + sb);
+			best = cheapest(best, build("RSR", radius, mod2pi(a - t), Math.sqrt(p2)*radius, mod2pi(t - b)));
+		}
+
+		p2 = -2 + d*d + 2*cab + 2*d*(sa + sb);
+		if (p2 >= 0) {
+			double p = Math.sqrt(p2);
+			double t = Math.atan2(-ca - cb, d + sa + sb) - Math.atan2(-2, p);
+			best = cheapest(best, build("LSR", radius, mod2pi(t - a), p*radius, mod2pi(t - b)));
+		}
+
+		p2 = -2 + d*d + 2*cab - 2*d*(sa + sb);
+		if (p2 >= 0) {
+			double p = Math.sqrt(p2);
+			double t = Math.atan2(ca + cb, d - sa - sb) - Math.atan2(2, p);
+			best = cheapest(best, build("RSL", radius, mod2pi(a - t), p*radius, mod2pi(b - t)));
+		}
+		return best;
+	}
+
+	/**
+	 *  Convert a word into wheel distances, dropping the empty segments
+	 *
+	 * 	@param String type - the word
+	 * 	@param double radius - the turning radius in cm
+	 * 	@param double... values - sweep in rads for L and R (positive), signed angle for T, length in cm for S
+	 *  @return Manoeuvre manoeuvre
+	 *  @since 1.0
+	 */
+	private Manoeuvre build(String type, double radius, double... values) {
+		double[] left = new double[values.length];
+		double[] right = new double[values.length];
+		StringBuilder word = new StringBuilder();
+		int count = 0;
+		for (int i = 0; i < values.length; i++) {
+			char segment = type.charAt(i);
+			double value = values[i];
+			if (Math.abs(value) < EPSILON)
+				continue;
+			switch (segment) {
+			case 'L':
+				left[count] = (radius - width/2)*value;
+				right[count] = (radius + width/2)*value;
+				break;
+			case 'R':
+				left[count] = (radius + width/2)*value;
+				right[count] = (radius - width/2)*value;
+				break;
+			case 'T':
+				left[count] = -width/2*value;
+				right[count] = width/2*value;
+				break;
+			default:
+				left[count] = value;
+				right[count] = value;
+				break;
+			}
+			word.append(segment);
+			count++;
+		}
+
+		// Time at cruise speed of the fastest wheel, and every wheel stopping to reverse
+		double cost = 0;
+		for (int i = 0; i < count; i++) {
+			cost += Math.max(Math.abs(left[i]), Math.abs(right[i]));
+			if (i > 0 && (left[i]*left[i - 1] < 0 || right[i]*right[i - 1] < 0))
+				cost += reversalCost;
+		}
+
+		double[] trimmedLeft = new double[count];
+		double[] trimmedRight = new double[count];
+		System.arraycopy(left, 0, trimmedLeft, 0, count);
+		System.arraycopy(right, 0, trimmedRight, 0, count);
+		return new Manoeuvre(word.toString(), trimmedLeft, trimmedRight, cost);
+	}
+
+	private static Manoeuvre cheapest(Manoeuvre first, Manoeuvre second) {
+		return second.cost < first.cost ? second : first;
+	}
+
+	/**
+	 *  Angle in [0, 2pi)
+	 *
+	 * 	@param double angle - in rads
+	 *  @return double angle - in rads
+	 *  @since 1.0
+	 */
+	private static double mod2pi(double angle) {
+		angle %= TWO_PI;
+		if (angle < 0)
+			angle += TWO_PI;
+		if (angle >= TWO_PI - EPSILON)
+			angle = 0;
+		return angle;
+	}
+
+	/**
+	 *  Shortest rotation, in [-pi, pi]
+	 *
+	 * 	@param double angle - in rads
+	 *  @return double angle - in rads
+	 *  @since 1.0
+	 */
+	private static double normalize(double angle) {
+		return Math.atan2(Math.sin(angle), Math.cos(angle));
+	}
+}
@@ -0,0 +1,81 @@
+package team10.navigation;
+
+import lejos.hardware.ev3.LocalEV3;
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import lejos.robotics.RegulatedMotor;
+
+/**
+ * Wheel motor backed by an EV3 large regulated motor
+ *
+ * @author Mathieu Tougas
+ * @version 1.1
+ *
+ */
+
+public class EV3WheelMotor implements WheelMotor {
+	private final EV3LargeRegulatedMotor motor;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param String port - the EV3 motor port
+	 *  @since 1.0
+	 */
+	public EV3WheelMotor(String port) {
+		this.motor = new EV3LargeRegulatedMotor(LocalEV3.get().getPort(port));
+	}
+
+	public int getTachoCount() {
+		return motor.getTachoCount();
+	}
+
+	public void setSpeed(float speed) {
+		motor.setSpeed(speed);
+	}
+
+	public void setAcceleration(int acceleration) {
+		motor.setAcceleration(acceleration);
+	}
+
+	public void forward() {
+		motor.forward();
+	}
+
+	public void backward() {
+		motor.backward();
+	}
+
+	public void stop() {
+		motor.stop();
+	}
+
+	public void rotate(int angle, boolean immediateReturn) {
+		motor.rotate(angle, immediateReturn);
+	}
+
+	public void waitComplete() {
+		motor.waitComplete();
+	}
+
+	public void synchronizeWith(WheelMotor other) {
+		motor.synchronizeWith(new RegulatedMotor[] { ((EV3WheelMotor) other).getMotor() });
+	}
+
+	public void startSynchronization() {
+		motor.startSynchronization();
+	}
+
+	public void endSynchronization() {
+		motor.endSynchronization();
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return EV3LargeRegulatedMotor motor - the underlying motor
+	 *  @since 1.0
+	 */
+	public EV3LargeRegulatedMotor getMotor() {
+		return motor;
+	}
+}
@@ -0,0 +1,187 @@
+package team10.navigation;
+
+/**
+ * Drift-free fixed-rate scheduler based on System.nanoTime(), keeps
+ * statistics on the missed deadlines and the tick jitter
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class FixedRateScheduler {
+	public enum Policy { CATCH_UP, SKIP };
+	private static final long NANOS_PER_MILLI = 1000000;
+
+	private final Policy policy;
+	private volatile long period;
+	private long deadline;
+
+	// periods still to catch up after the last tick, under CATCH_UP
+	private long backlog;
+
+	// statistics, written by the scheduled thread only
+	private volatile long ticks, missedDeadlines;
+	private volatile long lastJitter, maxJitter, totalJitter;
+	private volatile boolean resetRequested;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param long period - the period in ms
+	 * 	@param Policy policy - CATCH_UP runs the late ticks back to back, SKIP drops them
+	 *  @since 1.0
+	 */
+	public FixedRateScheduler(long period, Policy policy) {
+		this.period = period*NANOS_PER_MILLI;
+		this.policy = policy;
+	}
+
+	/**
+	 *  Start the schedule, the first tick is due one period from now
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void start() {
+		deadline = System.nanoTime() + period;
+		backlog = 0;
+	}
+
+	/**
+	 *  Block until the next tick is due, then update the statistics
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void waitForNextTick() {
+		long now = System.nanoTime();
+		long remaining = deadline - now;
+
+		// sleep until the deadline, the deadline never moves with the wake-up time
+		while (remaining > 0) {
+			try {
+				Thread.sleep(remaining/NANOS_PER_MILLI, (int) (remaining%NANOS_PER_MILLI));
+			} catch (InterruptedException e) {
+				// there is nothing to be done here because it is not
+				// expected that the scheduled thread will be interrupted
+			}
+			now = System.nanoTime();
+			remaining = deadline - now;
+		}
+
+		if (resetRequested) {
+			ticks = 0;
+			missedDeadlines = 0;
+			maxJitter = 0;
+			totalJitter = 0;
+			resetRequested = false;
+		}
+
+		long jitter = now - deadline;
+		lastJitter = jitter;
+		totalJitter += jitter;
+		if (jitter > maxJitter)
+			maxJitter = jitter;
+		ticks++;
+
+		// late by a full period or more: at least one tick was missed. The
+		// ticks catching up are still late by the same stall, count it once
+		long late = jitter/period;
+		if (late > backlog) {
+			missedDeadlines += late - backlog;
+		}
+
+		if (policy == Policy.SKIP) {
+			deadline += (late + 1)*period;
+			backlog = 0;
+		} else {
+			deadline += period;
+			backlog = Math.max(0, late - 1);
+		}
+	}
+
+	/**
+	 *  Mutator, takes effect from the next tick
+	 *
+	 *  @param long period - the period in ms
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void setPeriod(long period) {
+		this.period = period*NANOS_PER_MILLI;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long period - in ms
+	 *  @since 1.0
+	 */
+	public long getPeriod() {
+		return period/NANOS_PER_MILLI;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long ticks - the number of ticks since the last reset
+	 *  @since 1.0
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long missedDeadlines - the number of periods missed since the last reset
+	 *  @since 1.0
+	 */
+	public long getMissedDeadlines() {
+		return missedDeadlines;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long lastJitter - lateness of the last tick in ns
+	 *  @since 1.0
+	 */
+	public long getLastJitter() {
+		return lastJitter;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long maxJitter - worst lateness since the last reset in ns
+	 *  @since 1.0
+	 */
+	public long getMaxJitter() {
+		return maxJitter;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double meanJitter - mean lateness since the last reset in ns
+	 *  @since 1.0
+	 */
+	public double getMeanJitter() {
+		long count = ticks;
+		if (count == 0)
+			return 0;
+		return (double) totalJitter/count;
+	}
+
+	/**
+	 *  Reset the statistics, applied on the next tick
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void resetStatistics() {
+		resetRequested = true;
+	}
+}
@@ -0,0 +1,315 @@
+package team10.navigation;
+
+/**
+ * Runs actions when the robot enters a region of the field or faces a
+ * heading, so they overlap with the motion instead of waiting for it. The
+ * fences are checked on every odometer update with preallocated arrays, and
+ * the callbacks run on a worker thread to keep the odometer on time
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class GeofenceRegistry implements OdometerListener {
+	private static final int MAX_FENCES = 32;
+	private static final int QUEUE_SIZE = 16;
+	private static final double NANOS_PER_MILLI = 1000000.0;
+	private static final double ANY_HEADING = Math.PI;
+
+	private final Odometer odometer;
+	private final Object lock = new Object();
+
+	// fences, slot i is in use if callbacks[i] is not null
+	private final double[] minX, minY, maxX, maxY, radius;
+	private final double[] heading, headingTolerance;
+	private final boolean[] once, inside;
+	private final Runnable[] callbacks;
+
+	// fired callbacks waiting for the worker, a ring with the trigger times
+	private final Runnable[] fired;
+	private final long[] firedTimes;
+	private int firedHead, firedCount;
+
+	private long triggered, dropped;
+	private double totalLatency, maxLatency;
+
+	/**
+	 *  Constructor, registers itself with the odometer and starts the worker
+	 *
+	 * 	@param Odometer odometer
+	 *  @since 1.0
+	 */
+	public GeofenceRegistry(Odometer odometer) {
+		this.odometer = odometer;
+		this.minX = new double[MAX_FENCES];
+		this.minY = new double[MAX_FENCES];
+		this.maxX = new double[MAX_FENCES];
+		this.maxY = new double[MAX_FENCES];
+		this.radius = new double[MAX_FENCES];
+		this.heading = new double[MAX_FENCES];
+		this.headingTolerance = new double[MAX_FENCES];
+		this.once = new boolean[MAX_FENCES];
+		this.inside = new boolean[MAX_FENCES];
+		this.callbacks = new Runnable[MAX_FENCES];
+		this.fired = new Runnable[QUEUE_SIZE];
+		this.firedTimes = new long[QUEUE_SIZE];
+
+		Thread worker = new Thread() {
+			public void run() {
+				work();
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+		odometer.addListener(this);
+	}
+
+	/**
+	 *  Register a rectangle
+	 *
+	 * 	@param double x0 - corner in cm
+	 * 	@param double y0 - corner in cm
+	 * 	@param double x1 - opposite corner in cm
+	 * 	@param double y1 - opposite corner in cm
+	 * 	@param boolean once - if true, remove the fence after it fires, otherwise it fires on every entry
+	 * 	@param Runnable callback - run on the worker thread
+	 *  @return int id - for remove, -1 if the registry is full
+	 *  @since 1.0
+	 */
+	public int addRegion(double x0, double y0, double x1, double y1, boolean once, Runnable callback) {
+		return add(Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), 0, 0, ANY_HEADING, once, callback);
+	}
+
+	/**
+	 *  Register a disc
+	 *
+	 * 	@param double x - centre in cm
+	 * 	@param double y - centre in cm
+	 * 	@param double radius - in cm
+	 * 	@param boolean once - see addRegion
+	 * 	@param Runnable callback - run on the worker thread
+	 *  @return int id - for remove, -1 if the registry is full
+	 *  @since 1.0
+	 */
+	public int addCircle(double x, double y, double radius, boolean once, Runnable callback) {
+		return add(x - radius, y - radius, x + radius, y + radius, radius, 0, ANY_HEADING, once, callback);
+	}
+
+	/**
+	 *  Register a heading, anywhere on the field
+	 *
+	 * 	@param double heading - in rads
+	 * 	@param double tolerance - in rads on each side
+	 * 	@param boolean once - see addRegion
+	 * 	@param Runnable callback - run on the worker thread
+	 *  @return int id - for remove, -1 if the registry is full
+	 *  @since 1.0
+	 */
+	public int addHeading(double heading, double tolerance, boolean once, Runnable callback) {
+		return add(-Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, 0, heading, tolerance, once, callback);
+	}
+
+	/**
+	 *  Register a rectangle that only fires while facing a heading, such as
+	 *  driving towards a grid line
+	 *
+	 * 	@param double x0 - corner in cm
+	 * 	@param double y0 - corner in cm
+	 * 	@param double x1 - opposite corner in cm
+	 * 	@param double y1 - opposite corner in cm
+	 * 	@param double heading - in rads
+	 * 	@param double tolerance - in rads on each side
+	 * 	@param boolean once - see addRegion
+	 * 	@param Runnable callback - run on the worker thread
+	 *  @return int id - for remove, -1 if the registry is full
+	 *  @since 1.0
+	 */
+	public int addRegion(double x0, double y0, double x1, double y1, double heading, double tolerance, boolean once, Runnable callback) {
+		return add(Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), 0, heading, tolerance, once, callback);
+	}
+
+	/**
+	 *  Unregister a fence, its callback still runs if it already fired
+	 *
+	 * 	@param int id
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void remove(int id) {
+		if (id < 0 || id >= MAX_FENCES)
+			return;
+		synchronized (lock) {
+			callbacks[id] = null;
+		}
+	}
+
+	/**
+	 *  Check the fences, called by the odometer on every update. A fence
+	 *  fires when the robot enters it, not while it stays inside
+	 *
+	 * 	@param double leftDist - in cm
+	 * 	@param double rightDist - in cm
+	 * 	@param long timestamp - Clock.nanoTime() of the update
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void odometerUpdated(double leftDist, double rightDist, long timestamp) {
+		Pose pose = odometer.getPose();
+		double x = pose.getX();
+		double y = pose.getY();
+		double theta = pose.getTheta();
+		boolean wake = false;
+
+		synchronized (lock) {
+			for (int i = 0; i < MAX_FENCES; i++) {
+				if (callbacks[i] == null)
+					continue;
+
+				// Bounding box first, the disc and the heading only when inside it
+				boolean in = x >= minX[i] && x <= maxX[i] && y >= minY[i] && y <= maxY[i];
+				if (in && radius[i] > 0) {
+					double dx = x - (minX[i] + radius[i]);
+					double dy = y - (minY[i] + radius[i]);
+					in = dx*dx + dy*dy <= radius[i]*radius[i];
+				}
+				if (in && headingTolerance[i] < ANY_HEADING) {
+					double error = theta - heading[i];
+					in = Math.abs(Math.atan2(Math.sin(error), Math.cos(error))) <= headingTolerance[i];
+				}
+
+				if (in && !inside[i]) {
+					if (firedCount < QUEUE_SIZE) {
+						int slot = (firedHead + firedCount) % QUEUE_SIZE;
+						fired[slot] = callbacks[i];
+						firedTimes[slot] = timestamp;
+						firedCount++;
+						wake = true;
+					} else {
+						dropped++;
+					}
+					if (once[i])
+						callbacks[i] = null;
+				}
+				inside[i] = in;
+			}
+			if (wake)
+				lock.notifyAll();
+		}
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long triggered - the callbacks run
+	 *  @since 1.0
+	 */
+	public long getTriggeredCount() {
+		synchronized (lock) {
+			return triggered;
+		}
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long dropped - the triggers lost because the worker was behind
+	 *  @since 1.0
+	 */
+	public long getDroppedCount() {
+		synchronized (lock) {
+			return dropped;
+		}
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double latency - the mean time from the odometer update to the callback start in ms
+	 *  @since 1.0
+	 */
+	public double getMeanLatency() {
+		synchronized (lock) {
+			return triggered == 0 ? 0 : totalLatency/triggered;
+		}
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double latency - the longest time from the odometer update to the callback start in ms
+	 *  @since 1.0
+	 */
+	public double getMaxLatency() {
+		synchronized (lock) {
+			return maxLatency;
+		}
+	}
+
+	/**
+	 *  Store a fence in a free slot
+	 *
+	 *  @return int id - the slot, -1 if there is none
+	 *  @since 1.0
+	 */
+	private int add(double x0, double y0, double x1, double y1, double radius, double heading, double tolerance, boolean once, Runnable callback) {
+		synchronized (lock) {
+			for (int i = 0; i < MAX_FENCES; i++) {
+				if (callbacks[i] != null)
+					continue;
+				this.minX[i] = x0;
+				this.minY[i] = y0;
+				this.maxX[i] = x1;
+				this.maxY[i] = y1;
+				this.radius[i] = radius;
+				this.heading[i] = heading;
+				this.headingTolerance[i] = tolerance;
+				this.once[i] = once;
+				this.callbacks[i] = callback;
+
+				// A fence registered around the robot fires on the next update
+				this.inside[i] = false;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 *  Worker loop, runs the callbacks in the order they fired
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void work() {
+		while (true) {
+			Runnable callback;
+			synchronized (lock) {
+				while (firedCount == 0) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				callback = fired[firedHead];
+				long time = firedTimes[firedHead];
+				fired[firedHead] = null;
+				firedHead = (firedHead + 1) % QUEUE_SIZE;
+				firedCount--;
+
+				double latency = (Clock.nanoTime() - time)/NANOS_PER_MILLI;
+				triggered++;
+				totalLatency += latency;
+				if (latency > maxLatency)
+					maxLatency = latency;
+			}
+
+			try {
+				callback.run();
+			} catch (RuntimeException e) {
+				System.err.println("Error: " + e.getMessage());
+			}
+		}
+	}
+}
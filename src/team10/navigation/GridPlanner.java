@@ -0,0 +1,273 @@
+package team10.navigation;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A* route planner over the grid line intersections of the field, the same
+ * tile coordinates as Navigation.convertTileToDistance. Blocked intersections
+ * are kept in a bitset and the routes are memoized per field configuration
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class GridPlanner {
+	public static final int SIZE = 11;
+	private static final int NODES = SIZE*SIZE;
+	private static final double DIAGONAL = Math.sqrt(2);
+	private static final double TURN_COST = 0.01;
+	private static final int[] DX = { 1, 0, -1, 0, 1, -1, -1, 1 };
+	private static final int[] DY = { 0, 1, 0, -1, 1, 1, -1, -1 };
+
+	private final BitSet blocked;
+	private final Map<BitSet, Map<Integer, int[]>> routes;
+
+	// A* state, reused between searches
+	private final double[] cost;
+	private final int[] parent, direction;
+	private final BitSet open, closed;
+
+	/**
+	 *  Constructor, every intersection is free
+	 *
+	 *  @since 1.0
+	 */
+	public GridPlanner() {
+		this.blocked = new BitSet(NODES);
+		this.routes = new HashMap<BitSet, Map<Integer, int[]>>();
+		this.cost = new double[NODES];
+		this.parent = new int[NODES];
+		this.direction = new int[NODES];
+		this.open = new BitSet(NODES);
+		this.closed = new BitSet(NODES);
+	}
+
+	/**
+	 *  Block an intersection, ignored if it is off the grid
+	 *
+	 * 	@param int x - in tiles
+	 * 	@param int y - in tiles
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void block(int x, int y) {
+		if (onGrid(x, y))
+			blocked.set(node(x, y));
+	}
+
+	/**
+	 *  Block every intersection of a rectangle, corners included
+	 *
+	 * 	@param int x0 - in tiles
+	 * 	@param int y0 - in tiles
+	 * 	@param int x1 - in tiles
+	 * 	@param int y1 - in tiles
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void block(int x0, int y0, int x1, int y1) {
+		for (int x = Math.min(x0, x1); x <= Math.max(x0, x1); x++) {
+			for (int y = Math.min(y0, y1); y <= Math.max(y0, y1); y++) {
+				block(x, y);
+			}
+		}
+	}
+
+	/**
+	 *  Free every intersection, the memoized routes are kept
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void clear() {
+		blocked.clear();
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 * 	@param int x - in tiles
+	 * 	@param int y - in tiles
+	 *  @return boolean blocked - true if blocked or off the grid
+	 *  @since 1.0
+	 */
+	public boolean isBlocked(int x, int y) {
+		return !onGrid(x, y) || blocked.get(node(x, y));
+	}
+
+	/**
+	 *  Plan a route between two intersections
+	 *
+	 * 	@param int startX - in tiles
+	 * 	@param int startY - in tiles
+	 * 	@param int goalX - in tiles
+	 * 	@param int goalY - in tiles
+	 *  @return int[] route - the turning points and the goal {x0, y0, x1, y1, ...} in tiles, without the start, null if there is no route. Shared with the cache, do not modify
+	 *  @since 1.0
+	 */
+	public int[] plan(int startX, int startY, int goalX, int goalY) {
+		if (isBlocked(goalX, goalY) || !onGrid(startX, startY))
+			return null;
+
+		Map<Integer, int[]> field = routes.get(blocked);
+		if (field == null) {
+			field = new HashMap<Integer, int[]>();
+			routes.put((BitSet) blocked.clone(), field);
+		}
+
+		Integer key = node(startX, startY)*NODES + node(goalX, goalY);
+		if (field.containsKey(key))
+			return field.get(key);
+
+		int[] route = search(node(startX, startY), node(goalX, goalY));
+		field.put(key, route);
+		return route;
+	}
+
+	/**
+	 *  Plan a route from a position to an intersection, for Navigation.followPath
+	 *
+	 * 	@param double x - start x in cm, snapped to the closest intersection
+	 * 	@param double y - start y in cm, snapped to the closest intersection
+	 * 	@param int goalX - in tiles
+	 * 	@param int goalY - in tiles
+	 *  @return double[] path - the waypoints {x0, y0, x1, y1, ...} in cm, null if there is no route
+	 *  @since 1.0
+	 */
+	public double[] planPath(double x, double y, int goalX, int goalY) {
+		int startX = toTile(x);
+		int startY = toTile(y);
+		int[] route = plan(startX, startY, goalX, goalY);
+		if (route == null)
+			return null;
+
+		double[] path = new double[route.length];
+		for (int i = 0; i < route.length; i++)
+			path[i] = Navigation.convertTileToDistance(route[i]);
+		return path;
+	}
+
+	/**
+	 *  A* search with 8 neighbours, diagonals may not cut past a blocked intersection.
+	 *  Turns cost a little so that equal routes have as few turning points as possible
+	 *
+	 * 	@param int start - the start node
+	 * 	@param int goal - the goal node
+	 *  @return int[] route - see plan
+	 *  @since 1.0
+	 */
+	private int[] search(int start, int goal) {
+		open.clear();
+		closed.clear();
+		cost[start] = 0;
+		parent[start] = -1;
+		direction[start] = -1;
+		open.set(start);
+
+		while (!open.isEmpty()) {
+			// Open node with the lowest estimate, the grid is small enough to scan
+			int current = -1;
+			double best = Double.MAX_VALUE;
+			for (int n = open.nextSetBit(0); n >= 0; n = open.nextSetBit(n + 1)) {
+				double estimate = cost[n] + heuristic(n, goal);
+				if (estimate < best) {
+					best = estimate;
+					current = n;
+				}
+			}
+
+			if (current == goal)
+				return route(start, goal);
+			open.clear(current);
+			closed.set(current);
+
+			int x = current % SIZE;
+			int y = current / SIZE;
+			for (int i = 0; i < DX.length; i++) {
+				int nx = x + DX[i];
+				int ny = y + DY[i];
+				if (isBlocked(nx, ny) || (i >= 4 && (isBlocked(nx, y) || isBlocked(x, ny))))
+					continue;
+
+				int next = node(nx, ny);
+				if (closed.get(next))
+					continue;
+				double nextCost = cost[current] + (i < 4 ? 1 : DIAGONAL);
+				if (direction[current] >= 0 && direction[current] != i)
+					nextCost += TURN_COST;
+				if (!open.get(next) || nextCost < cost[next]) {
+					cost[next] = nextCost;
+					parent[next] = current;
+					direction[next] = i;
+					open.set(next);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 *  Walk back the parents, keeping only the points where the route turns
+	 *
+	 * 	@param int start - the start node
+	 * 	@param int goal - the goal node
+	 *  @return int[] route - see plan
+	 *  @since 1.0
+	 */
+	private int[] route(int start, int goal) {
+		int count = 0;
+		int nextDirection = -1;
+		int[] points = new int[NODES];
+		for (int n = goal; n != start; n = parent[n]) {
+			// keep the goal and every node where the direction changes
+			if (n == goal || direction[n] != nextDirection)
+				points[count++] = n;
+			nextDirection = direction[n];
+		}
+
+		int[] route = new int[2*count];
+		for (int i = 0; i < count; i++) {
+			int n = points[count - 1 - i];
+			route[2*i] = n % SIZE;
+			route[2*i + 1] = n / SIZE;
+		}
+		return route;
+	}
+
+	/**
+	 *  Octile distance, exact on an empty grid
+	 *
+	 * 	@param int from - the node
+	 * 	@param int goal - the goal node
+	 *  @return double distance - in tiles
+	 *  @since 1.0
+	 */
+	private static double heuristic(int from, int goal) {
+		int dx = Math.abs(from % SIZE - goal % SIZE);
+		int dy = Math.abs(from / SIZE - goal / SIZE);
+		return Math.max(dx, dy) + (DIAGONAL - 1)*Math.min(dx, dy);
+	}
+
+	/**
+	 *  Closest intersection to a distance on the field
+	 *
+	 * 	@param double distance - in cm
+	 *  @return int tile
+	 *  @since 1.0
+	 */
+	private static int toTile(double distance) {
+		int tile = (int) Math.round(distance/Navigation.getTileSize()) - 1;
+		return Math.max(0, Math.min(SIZE - 1, tile));
+	}
+
+	private static boolean onGrid(int x, int y) {
+		return x >= 0 && x < SIZE && y >= 0 && y < SIZE;
+	}
+
+	private static int node(int x, int y) {
+		return y*SIZE + x;
+	}
+}
@@ -0,0 +1,130 @@
+package team10.navigation;
+
+/**
+ * PID heading hold for the straight segments. Gives the wheel speed trim
+ * that steers the robot back onto a heading and keeps the error statistics
+ * of the current segment
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class HeadingHold {
+	private volatile double kp, ki, kd;
+	private final double maxTrim;
+	private double integral;
+	private long samples;
+	private double sumError, sumSquare, maxError;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param double kp - wheel deg/s per rad of error
+	 * 	@param double ki - wheel deg/s per rad.s of accumulated error
+	 * 	@param double kd - wheel deg/s per rad/s of turn rate
+	 * 	@param double maxTrim - the largest trim in wheel deg/s
+	 *  @since 1.0
+	 */
+	public HeadingHold(double kp, double ki, double kd, double maxTrim) {
+		this.kp = kp;
+		this.ki = ki;
+		this.kd = kd;
+		this.maxTrim = maxTrim;
+	}
+
+	/**
+	 *  Mutator
+	 *
+	 * 	@param double kp - wheel deg/s per rad of error
+	 * 	@param double ki - wheel deg/s per rad.s of accumulated error
+	 * 	@param double kd - wheel deg/s per rad/s of turn rate
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void setGains(double kp, double ki, double kd) {
+		this.kp = kp;
+		this.ki = ki;
+		this.kd = kd;
+	}
+
+	/**
+	 *  Start a new segment, clears the integral and the statistics
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void reset() {
+		integral = 0;
+		samples = 0;
+		sumError = 0;
+		sumSquare = 0;
+		maxError = 0;
+	}
+
+	/**
+	 *  Run the controller for one odometer update. The derivative term uses
+	 *  the measured turn rate, so a new heading does not kick the wheels
+	 *
+	 * 	@param double error - the heading to hold minus the heading, in rads
+	 * 	@param double rate - the turn rate in rad/s, positive counterclockwise
+	 * 	@param double dt - time since the last update in s
+	 *  @return double trim - added to the right wheel and taken from the left one, in deg/s
+	 *  @since 1.0
+	 */
+	public synchronized double update(double error, double rate, double dt) {
+		error = Math.atan2(Math.sin(error), Math.cos(error));
+		samples++;
+		sumError += Math.abs(error);
+		sumSquare += error*error;
+		maxError = Math.max(maxError, Math.abs(error));
+
+		// Anti-windup, the integral alone may not saturate the trim
+		if (ki > 0) {
+			integral += error*dt;
+			integral = Math.max(-maxTrim/ki, Math.min(maxTrim/ki, integral));
+		}
+		double trim = kp*error + ki*integral - kd*rate;
+		return Math.max(-maxTrim, Math.min(maxTrim, trim));
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long samples - the updates of the current segment
+	 *  @since 1.0
+	 */
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double error - the mean absolute heading error of the current segment in degrees
+	 *  @since 1.0
+	 */
+	public synchronized double getMeanError() {
+		return samples == 0 ? 0 : Math.toDegrees(sumError/samples);
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double error - the RMS heading error of the current segment in degrees
+	 *  @since 1.0
+	 */
+	public synchronized double getRmsError() {
+		return samples == 0 ? 0 : Math.toDegrees(Math.sqrt(sumSquare/samples));
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double error - the largest heading error of the current segment in degrees
+	 *  @since 1.0
+	 */
+	public synchronized double getMaxError() {
+		return Math.toDegrees(maxError);
+	}
+}
@@ -0,0 +1,682 @@
+package team10.navigation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the motion commands on its own thread so the caller can queue the
+ * next legs while the robot moves. Every leg is planned when it is queued,
+ * from where the previous leg ends, and consecutive paths are blended into
+ * one so the robot does not stop between them. Consecutive turns are merged
+ * into the shortest rotation, and the turns around a travelTo into one
+ * arc-line-arc manoeuvre
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class MotionExecutor extends Thread {
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private final Navigation navigation;
+	private final Odometer odometer;
+	private final GridPlanner planner;
+	private final BlockingDeque<Command> queue;
+	private final Object statsLock;
+
+	// preemptions so far and the command taken from the queue, under runLock
+	private final Object runLock;
+	private long preemptions;
+	private MotionFuture current;
+
+	// where the last queued command ends, {x, y, theta}, the preemptions it was planned after, and the commands not finished yet
+	private final double[] plannedEnd;
+	private int pending;
+	private long plannedGeneration;
+	// cancelled commands dropped while merging, only used by the executor thread
+	private int skipped;
+
+	private long commands, blended;
+	private double totalLatency, maxLatency;
+
+	/**
+	 * Result of a queued command, with its timing
+	 */
+	public static class MotionFuture implements Future<Void> {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final CountDownLatch stopped = new CountDownLatch(1);
+		private final long queued = Clock.nanoTime();
+		private volatile long started, finished;
+		private volatile boolean cancelled, running;
+		private volatile Throwable error;
+		private volatile CancellationToken token = new CancellationToken();
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			synchronized (this) {
+				if (isDone())
+					return false;
+				if (running) {
+					// preempt the motion, it finishes within one odometer tick
+					if (!mayInterruptIfRunning)
+						return false;
+					token.cancel();
+				} else {
+					stopped.countDown();
+				}
+				cancelled = true;
+			}
+			done.countDown();
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		public Void get() throws InterruptedException, ExecutionException {
+			done.await();
+			return result();
+		}
+
+		public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit))
+				throw new TimeoutException();
+			return result();
+		}
+
+		/**
+		 *  Block until the command stopped. A running command is done as soon
+		 *  as it is cancelled, but its motion stops within one odometer tick
+		 *
+		 *  @return No return value
+		 *  @throws InterruptedException
+		 *  @since 1.0
+		 */
+		public void awaitStopped() throws InterruptedException {
+			stopped.await();
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return double latency - time spent in the queue in ms, -1 if not started
+		 *  @since 1.0
+		 */
+		public double getQueueLatency() {
+			return started == 0 ? -1 : (started - queued)/NANOS_PER_MILLI;
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return double runTime - time spent running in ms, -1 if not finished
+		 *  @since 1.0
+		 */
+		public double getRunTime() {
+			return finished == 0 ? -1 : (finished - started)/NANOS_PER_MILLI;
+		}
+
+		/**
+		 *  Mark the command as running
+		 *
+		 *  @return boolean start - false if it was cancelled
+		 *  @since 1.0
+		 */
+		private synchronized boolean start() {
+			if (cancelled)
+				return false;
+			running = true;
+			started = Clock.nanoTime();
+			return true;
+		}
+
+		/**
+		 *  Accessor
+		 *
+		 *  @return CancellationToken token - cancels the motion of this command
+		 *  @since 1.0
+		 */
+		public CancellationToken getToken() {
+			return token;
+		}
+
+		/**
+		 *  Mark the command as done
+		 *
+		 * 	@param boolean completed - false if the motion was cancelled
+		 * 	@param Throwable error - null if it succeeded
+		 *  @return No return value
+		 *  @since 1.0
+		 */
+		private void finish(boolean completed, Throwable error) {
+			if (!completed)
+				this.cancelled = true;
+			this.error = error;
+			finished = Clock.nanoTime();
+			done.countDown();
+			stopped.countDown();
+		}
+
+		private Void result() throws ExecutionException {
+			if (cancelled)
+				throw new CancellationException();
+			if (error != null)
+				throw new ExecutionException(error);
+			return null;
+		}
+	}
+
+	/**
+	 * A queued command, planned on the caller thread and run on the executor thread
+	 */
+	private abstract static class Command {
+		final MotionFuture future = new MotionFuture();
+		// preemptions before it was queued
+		long generation;
+
+		/**
+		 *  Plan the command from where the previous one ends
+		 *
+		 * 	@param double[] end - {x, y, theta}, updated to where this command ends
+		 *  @return No return value
+		 */
+		abstract void plan(double[] end);
+
+		/**
+		 *  Run the command on the executor thread
+		 *
+		 * 	@param CancellationToken token
+		 *  @return boolean completed - false if it was cancelled
+		 */
+		abstract boolean execute(CancellationToken token);
+	}
+
+	/**
+	 * Pure pursuit through waypoints, blended with the following paths
+	 */
+	private class PathCommand extends Command {
+		double[] path;
+		private final int goalX, goalY;
+
+		PathCommand(double[] path) {
+			this.path = path;
+			this.goalX = -1;
+			this.goalY = -1;
+		}
+
+		PathCommand(int goalX, int goalY) {
+			this.goalX = goalX;
+			this.goalY = goalY;
+		}
+
+		void plan(double[] end) {
+			if (path == null) {
+				// No route around the blocked intersections, fails when run rather than driving through them
+				path = planner.planPath(end[0], end[1], goalX, goalY);
+				if (path == null) {
+					System.err.println("Error: no route to (" + goalX + ", " + goalY + ")");
+					return;
+				}
+			}
+			if (path.length >= 2) {
+				double previousX = path.length >= 4 ? path[path.length - 4] : end[0];
+				double previousY = path.length >= 4 ? path[path.length - 3] : end[1];
+				end[0] = path[path.length - 2];
+				end[1] = path[path.length - 1];
+				end[2] = Math.atan2(end[1] - previousY, end[0] - previousX);
+			}
+		}
+
+		boolean execute(CancellationToken token) {
+			if (path == null)
+				throw new IllegalStateException("No route to (" + goalX + ", " + goalY + ")");
+			return navigation.followPath(path, token);
+		}
+	}
+
+	/**
+	 * Turn to a heading, the relative turns are planned into one
+	 */
+	private class TurnCommand extends Command {
+		private final double theta;
+		private final boolean relative;
+		double heading;
+
+		TurnCommand(double theta, boolean relative) {
+			this.theta = theta;
+			this.relative = relative;
+		}
+
+		void plan(double[] end) {
+			heading = relative ? end[2] + theta : theta;
+			end[2] = heading;
+		}
+
+		boolean execute(CancellationToken token) {
+			return navigation.turnTo(heading, token);
+		}
+	}
+
+	/**
+	 * Drive to a point, stops on it
+	 */
+	private class TravelCommand extends Command {
+		final double x, y;
+
+		TravelCommand(double x, double y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		void plan(double[] end) {
+			end[2] = Math.atan2(y - end[1], x - end[0]);
+			end[0] = x;
+			end[1] = y;
+		}
+
+		boolean execute(CancellationToken token) {
+			return navigation.travelTo(x, y, token);
+		}
+	}
+
+	/**
+	 * Turns and a travelTo merged into one manoeuvre
+	 */
+	private class ManoeuvreCommand extends Command {
+		private final TravelCommand travel;
+		private final double heading;
+
+		/**
+		 * 	@param TravelCommand travel - null to only turn
+		 * 	@param double heading - the final heading in rads, NaN if free
+		 */
+		ManoeuvreCommand(TravelCommand travel, double heading) {
+			this.travel = travel;
+			this.heading = heading;
+		}
+
+		void plan(double[] end) {
+			// planned by the merged commands
+		}
+
+		boolean execute(CancellationToken token) {
+			if (travel == null)
+				return navigation.turnTo(heading, token);
+			if (Double.isNaN(heading))
+				return navigation.arcTo(travel.x, travel.y, token);
+			return navigation.arcTo(travel.x, travel.y, heading, token);
+		}
+	}
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param Navigation navigation - only this thread may use it once started
+	 * 	@param Odometer odometer
+	 * 	@param GridPlanner planner - plans the goTo commands
+	 *  @since 1.0
+	 */
+	public MotionExecutor(Navigation navigation, Odometer odometer, GridPlanner planner) {
+		this.navigation = navigation;
+		this.odometer = odometer;
+		this.planner = planner;
+		this.queue = new LinkedBlockingDeque<Command>();
+		this.statsLock = new Object();
+		this.runLock = new Object();
+		this.plannedEnd = new double[3];
+		this.pending = 0;
+		setDaemon(true);
+	}
+
+	/**
+	 *  Runs the queued commands in order
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void run() {
+		while (true) {
+			Command command;
+			try {
+				command = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			// Preempted after it left the queue, before it was tracked
+			synchronized (runLock) {
+				if (command.generation != preemptions)
+					command.future.cancel(false);
+				current = command.future;
+			}
+			if (!command.future.start()) {
+				synchronized (runLock) {
+					current = null;
+				}
+				done(1);
+				continue;
+			}
+
+			// Blend the paths waiting behind this one
+			List<MotionFuture> futures = new ArrayList<MotionFuture>();
+			futures.add(command.future);
+			Command run = command;
+			if (command instanceof PathCommand) {
+				PathCommand path = (PathCommand) command;
+				Command next;
+				while (path.path != null && (next = take(PathCommand.class, command, futures)) != null)
+					path.path = concat(path.path, ((PathCommand) next).path);
+			}
+
+			// Merge the turns, with the travelTo they lead to or follow
+			else if (command instanceof TurnCommand || command instanceof TravelCommand) {
+				TravelCommand travel = null;
+				double heading = Double.NaN;
+				Command next;
+				if (command instanceof TurnCommand) {
+					heading = ((TurnCommand) command).heading;
+					while ((next = take(TurnCommand.class, command, futures)) != null)
+						heading = ((TurnCommand) next).heading;
+					travel = (TravelCommand) take(TravelCommand.class, command, futures);
+					if (travel != null)
+						heading = Double.NaN;
+				} else {
+					travel = (TravelCommand) command;
+				}
+				while (travel != null && (next = take(TurnCommand.class, command, futures)) != null)
+					heading = ((TurnCommand) next).heading;
+				if (futures.size() > 1)
+					run = new ManoeuvreCommand(travel, heading);
+			}
+			int taken = futures.size() + skipped;
+			skipped = 0;
+
+			boolean completed = true;
+			Throwable error = null;
+			try {
+				completed = run.execute(command.future.token);
+			} catch (RuntimeException e) {
+				error = e;
+			}
+			for (MotionFuture future : futures)
+				future.finish(completed, error);
+			synchronized (runLock) {
+				current = null;
+			}
+			record(command.future, futures.size() - 1);
+			done(taken);
+		}
+	}
+
+	/**
+	 *  Queue a path, it runs with pure pursuit
+	 *
+	 * 	@param double[] path - the waypoints {x0, y0, x1, y1, ...} in cm
+	 *  @return MotionFuture future
+	 *  @since 1.0
+	 */
+	public MotionFuture followPath(double[] path) {
+		return submit(new PathCommand(path));
+	}
+
+	/**
+	 *  Queue a planned route to a grid intersection
+	 *
+	 * 	@param int x - in tiles
+	 * 	@param int y - in tiles
+	 *  @return MotionFuture future
+	 *  @since 1.0
+	 */
+	public MotionFuture goTo(int x, int y) {
+		return submit(new PathCommand(x, y));
+	}
+
+	/**
+	 *  Queue a travelTo, stops at the point
+	 *
+	 * 	@param final double x
+	 * 	@param final double y
+	 *  @return MotionFuture future
+	 *  @since 1.0
+	 */
+	public MotionFuture travelTo(double x, double y) {
+		return submit(new TravelCommand(x, y));
+	}
+
+	/**
+	 *  Queue a relative turn
+	 *
+	 * 	@param final double theta - in rads
+	 *  @return MotionFuture future
+	 *  @since 1.0
+	 */
+	public MotionFuture turn(double theta) {
+		return submit(new TurnCommand(theta, true));
+	}
+
+	/**
+	 *  Queue a turn to a heading
+	 *
+	 * 	@param final double theta - in rads
+	 *  @return MotionFuture future
+	 *  @since 1.0
+	 */
+	public MotionFuture turnTo(double theta) {
+		return submit(new TurnCommand(theta, false));
+	}
+
+	/**
+	 *  Queue a straight move
+	 *
+	 * 	@param final double distance - in cm, negative backs off
+	 *  @return MotionFuture future
+	 *  @since 1.0
+	 */
+	public MotionFuture goForward(final double distance) {
+		return submit(new Command() {
+			void plan(double[] end) {
+				end[0] += Math.cos(end[2])*distance;
+				end[1] += Math.sin(end[2])*distance;
+			}
+
+			boolean execute(CancellationToken token) {
+				return navigation.goForward(distance, token);
+			}
+		});
+	}
+
+	/**
+	 *  Queue any other action, such as the launcher. It is assumed not to move
+	 *  the robot and it cannot be cancelled once started
+	 *
+	 * 	@param final Runnable action
+	 *  @return MotionFuture future
+	 *  @since 1.0
+	 */
+	public MotionFuture action(final Runnable action) {
+		return submit(new Command() {
+			void plan(double[] end) {
+				// the robot stays in place
+			}
+
+			boolean execute(CancellationToken token) {
+				action.run();
+				return true;
+			}
+		});
+	}
+
+	/**
+	 *  Cancel every queued command and preempt the running one, for a higher
+	 *  priority behaviour to take over. The motion stops within one odometer tick
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void preempt() {
+		synchronized (runLock) {
+			preemptions++;
+			for (Command command : queue)
+				command.future.cancel(false);
+			if (current != null)
+				current.cancel(true);
+		}
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return int depth - the commands waiting in the queue
+	 *  @since 1.0
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double latency - the mean time from queueing to running in ms
+	 *  @since 1.0
+	 */
+	public double getMeanLatency() {
+		synchronized (statsLock) {
+			return commands == 0 ? 0 : totalLatency/commands;
+		}
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double latency - the longest time from queueing to running in ms
+	 *  @since 1.0
+	 */
+	public double getMaxLatency() {
+		synchronized (statsLock) {
+			return maxLatency;
+		}
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long blended - the paths, turns and travelTo merged into the command before them
+	 *  @since 1.0
+	 */
+	public long getBlendedCount() {
+		synchronized (statsLock) {
+			return blended;
+		}
+	}
+
+	/**
+	 *  Plan a command and queue it
+	 *
+	 * 	@param Command command
+	 *  @return MotionFuture future
+	 *  @since 1.0
+	 */
+	private synchronized MotionFuture submit(Command command) {
+		long generation;
+		synchronized (runLock) {
+			generation = preemptions;
+		}
+
+		// Start from the robot when nothing is queued or running, or the queued commands were preempted
+		if (pending == 0 || generation != plannedGeneration) {
+			Pose pose = odometer.getPose();
+			plannedEnd[0] = pose.getX();
+			plannedEnd[1] = pose.getY();
+			plannedEnd[2] = pose.getTheta();
+			plannedGeneration = generation;
+		}
+		command.plan(plannedEnd);
+		pending++;
+		command.generation = generation;
+		queue.add(command);
+		return command.future;
+	}
+
+	/**
+	 *  Count commands out of the queue, finished or cancelled
+	 *
+	 * 	@param int count
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private synchronized void done(int count) {
+		pending -= count;
+	}
+
+	/**
+	 *  Update the statistics with a finished command
+	 *
+	 * 	@param MotionFuture future
+	 * 	@param int merged - the paths blended into it
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void record(MotionFuture future, int merged) {
+		synchronized (statsLock) {
+			double latency = future.getQueueLatency();
+			commands++;
+			blended += merged;
+			totalLatency += latency;
+			if (latency > maxLatency)
+				maxLatency = latency;
+		}
+	}
+
+	/**
+	 *  Take the next queued command if it can be merged into the running one.
+	 *  The cancelled ones are dropped and counted as skipped, a path without
+	 *  a route is left to fail on its own
+	 *
+	 * 	@param Class<? extends Command> type - the kind of command to take
+	 * 	@param Command command - the running command
+	 * 	@param List<MotionFuture> futures - the futures finished with the running command, the taken one is added
+	 *  @return Command next - null if the next command is not of that type
+	 *  @since 1.0
+	 */
+	private Command take(Class<? extends Command> type, Command command, List<MotionFuture> futures) {
+		Command next;
+		while (type.isInstance(next = queue.peek()) && !(next instanceof PathCommand && ((PathCommand) next).path == null) && queue.remove(next)) {
+			next.future.token = command.future.token;
+			if (!next.future.start()) {
+				skipped++;
+				continue;
+			}
+			futures.add(next.future);
+			return next;
+		}
+		return null;
+	}
+
+	/**
+	 *  Join two paths
+	 *
+	 * 	@param double[] first
+	 * 	@param double[] second
+	 *  @return double[] path
+	 *  @since 1.0
+	 */
+	private static double[] concat(double[] first, double[] second) {
+		double[] path = new double[first.length + second.length];
+		System.arraycopy(first, 0, path, 0, first.length);
+		System.arraycopy(second, 0, path, first.length, second.length);
+		return path;
+	}
+}
@@ -1,30 +1,74 @@
 package team10.navigation;
 
-import lejos.hardware.motor.EV3LargeRegulatedMotor;
 import lejos.robotics.SampleProvider;
+import team10.telemetry.TelemetryRecorder;
 
 /**
  * Handles the directions calculation for the robot
  * 
  * @author Mathieu Tougas
- * @version 2.0
+ * @version 3.0
  * 
  */
 
 public class Navigation {
-	private EV3LargeRegulatedMotor leftMotor, rightMotor;
+	private WheelMotor leftMotor, rightMotor;
 	private Odometer odometer;
 	private static final int FORWARD_SPEED = 200;
 	private static final int ROTATE_SPEED = 125;
-	private static final int ACCELERATION = 250;
 	private static final double TILE_SIZE = 30.48;
 	private final static double DEGREE_ERR = 1;
+	private static final double TURN_GAIN = 4.0;
+	private static final int MIN_TURN_SPEED = 20;
+	private static final int SETTLE_TICKS = 3;
+	private static final double TURN_MARGIN = 1.0;
+	private static final double STOPPED_SPEED = 0.5;
+	private static final double BRAKE_TIMEOUT = 1.0;
+	private static final int MAX_RETRIES = 5;
+	private static final double MIN_LEARN_SPEED = 5.0;
+	private static final double DECELERATION_GAIN = 0.3;
+	private static final double HOLD_KP = 200;
+	private static final double HOLD_KI = 20;
+	private static final double HOLD_KD = 20;
+	private static final double MAX_TRIM = 0.25*FORWARD_SPEED;
+	private static final double HOLD_FREEZE_DISTANCE = 5.0;
+	private static final int MAX_REPLANS = 4;
+	private static final double LOOKAHEAD = 15.0;
+	private static final double ARRIVAL_DISTANCE = 2.0;
+	private static final double SLOWDOWN_DISTANCE = 20.0;
+	private static final double MIN_SPEED_RATIO = 0.3;
+	private static final double MAX_PURSUIT_ANGLE = Math.PI/2;
+	private static final int TACHO_TOLERANCE = 2;
+	private static final double PROFILE_TIMEOUT = 1.5;
 	
-	static double destX, destY, distW;
+	// Targets of the current motion, read by the display
+	private volatile double destX, destY, angleToTurn;
 	private double currentX, currentY, wheelRadius, width;
-	private boolean onPoint, passed;
+	private final TrajectoryGenerator trajectory;
+	private boolean speedAcceleration;
 	
-	public static double angleToTurn;
+	// Measured braking deceleration, and the turns after a missed point
+	private volatile double deceleration;
+	private volatile long retries;
+	private final HeadingHold headingHold;
+	private final DubinsPlanner dubins;
+	private double lookahead = LOOKAHEAD;
+	private final double[] pursuitPoint = new double[2];
+	
+	// Closed-loop turn tuning, and the result of the last turn
+	private double turnGain = TURN_GAIN;
+	private double turnTolerance = DEGREE_ERR;
+	private int settleTicks = SETTLE_TICKS;
+	private volatile double turnTime, turnError;
+	private volatile boolean turnTimedOut;
+	
+	// Token of the current motion, and the reaction to the preemptions
+	private volatile CancellationToken motion;
+	private final Object preemptionLock = new Object();
+	private long preemptions;
+	private double totalReaction, maxReaction;
+	
+	private enum TravelState { TURN, DRIVE, BRAKE, ARRIVED }
 	
 	/**
 	 *  Constructor
@@ -32,11 +76,19 @@ public class Navigation {
 	 *  @since 1.0
 	 */
 	public Navigation (Odometer odometer) {
-		this.leftMotor = Odometer.leftMotor;
-		this.rightMotor = Odometer.rightMotor;
+		this.leftMotor = odometer.getLeftMotor();
+		this.rightMotor = odometer.getRightMotor();
 		this.odometer = odometer;
 		this.wheelRadius = Odometer.getWheelRadius();
 		this.width = Odometer.getWheelBase();
+		this.trajectory = new TrajectoryGenerator(leftMotor, rightMotor, wheelRadius, Odometer.getConfig().getSlipAcceleration());
+		this.speedAcceleration = false;
+		this.deceleration = Odometer.getConfig().getSlipAcceleration();
+		this.headingHold = new HeadingHold(HOLD_KP, HOLD_KI, HOLD_KD, MAX_TRIM);
+		
+		// Arcs as tight as the track, a reversal costs a stop and a restart at cruise speed
+		double cruise = FORWARD_SPEED*Math.PI*wheelRadius/180;
+		this.dubins = new DubinsPlanner(width, width, cruise*cruise/Odometer.getConfig().getSlipAcceleration());
 		//this.usDistance = Localization.usSensor.getMode("Distance");
 		//this.usData = new float[usDistance.sampleSize()];
 		
@@ -65,51 +117,177 @@ public class Navigation {
 	}
 	
 	/**
-	 *  Drives to the set destinations
+	 *  Get the tile size
+	 * 
+	 * 	@param No parameter
+	 *  @return double TILE_SIZE - in cm
+	 *  @since 3.0
+	 */
+	public static double getTileSize(){
+		return TILE_SIZE;
+	}
+	
+	/**
+	 *  Accessor
+	 * 
+	 *  @return double destX - x of the current target in cm
+	 *  @since 3.0
+	 */
+	public double getDestX(){
+		return destX;
+	}
+	
+	/**
+	 *  Accessor
+	 * 
+	 *  @return double destY - y of the current target in cm
+	 *  @since 3.0
+	 */
+	public double getDestY(){
+		return destY;
+	}
+	
+	/**
+	 *  Accessor
+	 * 
+	 *  @return double angleToTurn - the last turn in rads
+	 *  @since 3.0
+	 */
+	public double getAngleToTurn(){
+		return angleToTurn;
+	}
+	
+	/**
+	 *  Make a token the one cancelled by preempt, every motion call does it
+	 * 
+	 *  @param CancellationToken token
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void startMotion(CancellationToken token){
+		motion = token;
+	}
+	
+	/**
+	 *  Stop the wheels after a cancelled motion and record the reaction latency
+	 * 
+	 *  @param CancellationToken token - the cancelled token
+	 *  @return boolean completed - always false, for the motion to return
+	 *  @since 3.0
+	 */
+	public boolean stopMotion(CancellationToken token){
+		leftMotor.startSynchronization();
+		leftMotor.stop();
+		rightMotor.stop();
+		leftMotor.endSynchronization();
+		speedAcceleration = false;
+		
+		double reaction = token.acknowledge()/1000000.0;
+		synchronized (preemptionLock) {
+			preemptions++;
+			totalReaction += reaction;
+			if (reaction > maxReaction)
+				maxReaction = reaction;
+		}
+		return false;
+	}
+	
+	/**
+	 *  Cancel the current motion, it stops within one odometer tick. Safe to
+	 *  call from any thread, for higher priority behaviours
+	 * 
+	 *  @return CancellationToken token - the cancelled token, null if there was no motion
+	 *  @since 3.0
+	 */
+	public CancellationToken preempt(){
+		CancellationToken token = motion;
+		if (token != null)
+			token.cancel();
+		return token;
+	}
+	
+	/**
+	 *  Accessor
+	 * 
+	 *  @return long preemptions - the motions stopped by a cancellation
+	 *  @since 3.0
+	 */
+	public long getPreemptionCount(){
+		synchronized (preemptionLock) {
+			return preemptions;
+		}
+	}
+	
+	/**
+	 *  Accessor
+	 * 
+	 *  @return double latency - the mean time from a cancellation to the stop in ms
+	 *  @since 3.0
+	 */
+	public double getMeanReactionLatency(){
+		synchronized (preemptionLock) {
+			return preemptions == 0 ? 0 : totalReaction/preemptions;
+		}
+	}
+	
+	/**
+	 *  Accessor
+	 * 
+	 *  @return double latency - the longest time from a cancellation to the stop in ms
+	 *  @since 3.0
+	 */
+	public double getMaxReactionLatency(){
+		synchronized (preemptionLock) {
+			return maxReaction;
+		}
+	}
+	
+	/**
+	 *  Drives to the set destinations, stopping on each of them
 	 * 	
-	 *  @param int[] destinations - the points to travel-to
+	 *  @param int[] destinations - the points to travel-to {x0, y0, x1, y1, ...}, a trailing odd coordinate is ignored
 	 *  @return No return value
 	 *  @since 1.0
 	 */
 	public void drive(int[] destinations) {
 		// reset the motors
-		for (EV3LargeRegulatedMotor motor : new EV3LargeRegulatedMotor[] { leftMotor, rightMotor }) {
+		for (WheelMotor motor : new WheelMotor[] { leftMotor, rightMotor }) {
 			motor.stop();
-			motor.setAcceleration(ACCELERATION);
 		}
 
-		// wait 5 seconds
-		try {
-			Thread.sleep(1000);
-		} catch (InterruptedException e) {
-			// there is nothing to be done here because it is not expected that
-			// the odometer will be interrupted by another thread
-		}
-		
-		//  Variable initialization
-		onPoint = true;
-		int point = 0;
+		// wait 1 second
+		Clock.sleep(1000);
 		
 		// Point navigation
-		while (point <= destinations.length) {
-			
-			currentX = odometer.getX();
-			currentY = odometer.getY();
-			
-			if (onPoint == true && point < destinations.length){
-				destX = destinations[point];
-				destY = destinations[point+1];
-				point+=2;
-				onPoint = false;
-			}
-			else if ( point == destinations.length && onPoint == true){
-				break;
-			}
-			
-			travelTo(destX, destY);
+		for (int point = 0; point + 1 < destinations.length; point += 2) {
+			travelTo(destinations[point], destinations[point + 1]);
 		}
 	}
 	
+	/**
+	 *  Drive through the waypoints of a stream without stopping at them, see
+	 *  followPath. New waypoints are picked up on the next odometer update,
+	 *  and the robot waits on the last one until more come or the stream
+	 *  is closed
+	 * 	
+	 *  @param WaypointStream waypoints
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void drive(WaypointStream waypoints) {
+		drive(waypoints, new CancellationToken());
+	}
+	
+	/**
+	 *  Accessor
+	 *  
+	 *  @return TrajectoryGenerator trajectory - the profiles of turn and goForward
+	 *  @since 3.0
+	 */
+	public TrajectoryGenerator getTrajectory() {
+		return trajectory;
+	}
+	
 	/**
 	 *  Functions to set the motor speeds jointly
 	 *  
@@ -119,6 +297,16 @@ public class Navigation {
 	 *  @since 1.0
 	 */
 	public void setSpeeds(float lSpd, float rSpd) {
+		TelemetryRecorder.recordMotor(TelemetryRecorder.SPEEDS, lSpd, rSpd, 0);
+		
+		// Same slip bound as the profiles, they leave their own accelerations behind
+		if (!speedAcceleration) {
+			this.leftMotor.setAcceleration(trajectory.getMaxAcceleration());
+			this.rightMotor.setAcceleration(trajectory.getMaxAcceleration());
+			speedAcceleration = true;
+		}
+		
+		this.leftMotor.startSynchronization();
 		this.leftMotor.setSpeed(lSpd);
 		this.rightMotor.setSpeed(rSpd);
 		if (lSpd < 0)
@@ -129,6 +317,7 @@ public class Navigation {
 			this.rightMotor.backward();
 		else
 			this.rightMotor.forward();
+		this.leftMotor.endSynchronization();
 	}
 	
 	/**
@@ -166,31 +355,537 @@ public class Navigation {
 	 *  @since 1.0
 	 */
 	public void travelTo(double x, double y){
-		// Turn to the desired angle
-		currentX = odometer.getX();
-		currentY = odometer.getY();
+		travelTo(x, y, new CancellationToken());
+	}
+	
+	/**
+	 *  Travel to a set point, can be cancelled
+	 * 	
+	 *  @param double x - x-coordinate to travel to
+	 *  @param double y - y coordinate to travel to
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled, or it stopped off the point after MAX_RETRIES turns
+	 *  @since 3.0
+	 */
+	public boolean travelTo(double x, double y, CancellationToken token){
+		startMotion(token);
 		destX = x;
 		destY = y;
-		double tetha = getAngle(currentX, currentY, x, y);
-		angleToTurn = tetha - odometer.getTheta();
-		turn(angleToTurn);
+		TravelState state = TravelState.TURN;
+		long tick = odometer.getTickCount();
+		int attempts = 0;
+		double brakeX = 0, brakeY = 0, brakeSpeed = 0;
+		long brakeDeadline = 0, lastUpdate = 0;
+		double holdHeading = 0;
+		
+		while (state != TravelState.ARRIVED) {
+			switch (state) {
+			case TURN:
+				// Give up rather than turning in place forever
+				if (attempts > MAX_RETRIES) {
+					System.err.println("Error: travelTo gave up " + Math.round(Math.hypot(destX - currentX, destY - currentY)) + " cm off the point");
+					return false;
+				}
+				if (attempts++ > 0)
+					retries++;
+				
+				// Turn to the desired angle
+				currentX = odometer.getX();
+				currentY = odometer.getY();
+				double tetha = getAngle(currentX, currentY, destX, destY);
+				angleToTurn = tetha - odometer.getTheta();
+				if (!turn(angleToTurn, token))
+					return false;
+				
+				// Set the motors speed forward, holding the heading to the point
+				tick = odometer.getTickCount();
+				holdHeading = tetha;
+				headingHold.reset();
+				lastUpdate = odometer.getPose().getTimestamp();
+				setSpeeds(FORWARD_SPEED, FORWARD_SPEED);
+				state = TravelState.DRIVE;
+				break;
+			case DRIVE:
+				// Sleep until the odometer updates, then check the position
+				tick = odometer.waitForUpdate(tick);
+				if (token.isCancelled())
+					return stopMotion(token);
+				Pose pose = odometer.getPose();
+				currentX = pose.getX();
+				currentY = pose.getY();
+				
+				// Brake once the point is within the stopping distance
+				double remaining = (destX - currentX)*Math.cos(pose.getTheta()) + (destY - currentY)*Math.sin(pose.getTheta());
+				double speed = odometer.getLinearVelocity();
+				if (remaining <= getBrakingDistance(speed)) {
+					setSpeeds(0, 0);
+					TelemetryRecorder.recordMotor(TelemetryRecorder.HEADING, headingHold.getMeanError(), headingHold.getMaxError(), headingHold.getSamples());
+					brakeX = currentX;
+					brakeY = currentY;
+					brakeSpeed = speed;
+					brakeDeadline = Clock.nanoTime() + (long) (BRAKE_TIMEOUT*1e9);
+					state = TravelState.BRAKE;
+					break;
+				}
+				
+				// Trim the wheels towards the point, the bearing is left alone close to it
+				if (Math.hypot(destX - currentX, destY - currentY) > HOLD_FREEZE_DISTANCE)
+					holdHeading = Math.atan2(destY - currentY, destX - currentX);
+				double trim = headingHold.update(holdHeading - pose.getTheta(), odometer.getAngularVelocity(), (pose.getTimestamp() - lastUpdate)/1e9);
+				lastUpdate = pose.getTimestamp();
+				setSpeeds((float) (FORWARD_SPEED - trim), (float) (FORWARD_SPEED + trim));
+				break;
+			case BRAKE:
+				// Wait for the robot to stop, then learn from the coasting distance
+				tick = odometer.waitForUpdate(tick);
+				if (token.isCancelled())
+					return stopMotion(token);
+				if (Math.abs(odometer.getLinearVelocity()) > STOPPED_SPEED && Clock.nanoTime() < brakeDeadline)
+					break;
+				
+				currentX = odometer.getX();
+				currentY = odometer.getY();
+				learnDeceleration(brakeSpeed, Math.hypot(currentX - brakeX, currentY - brakeY));
+				
+				// Turn again if it stopped too far from the point
+				if (Math.hypot(destX - currentX, destY - currentY) <= ARRIVAL_DISTANCE) {
+					state = TravelState.ARRIVED;
+				} else {
+					state = TravelState.TURN;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 *  Distance the robot covers once the wheels are told to stop, plus half
+	 *  an odometer period since the position is only checked on updates
+	 * 	
+	 *  @param double speed - the forward speed in cm/s
+	 *  @return double distance - in cm
+	 *  @since 3.0
+	 */
+	private double getBrakingDistance(double speed) {
+		speed = Math.max(0, speed);
+		return speed*speed/(2*deceleration) + speed*odometer.getScheduler().getPeriod()/2000.0;
+	}
+	
+	/**
+	 *  Update the braking deceleration from a measured stop. Slow stops are
+	 *  skipped, their coasting distance is mostly tacho quantization
+	 * 	
+	 *  @param double speed - the forward speed when braking started in cm/s
+	 *  @param double distance - the distance covered until the robot stopped in cm
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	private void learnDeceleration(double speed, double distance) {
+		if (speed < MIN_LEARN_SPEED || distance <= 0)
+			return;
+		double measured = speed*speed/(2*distance);
+		deceleration += DECELERATION_GAIN*(measured - deceleration);
+	}
+	
+	/**
+	 *  Accessor
+	 * 	
+	 *  @return double deceleration - the measured braking deceleration in cm/s^2
+	 *  @since 3.0
+	 */
+	public double getDeceleration() {
+		return deceleration;
+	}
+	
+	/**
+	 *  Accessor
+	 * 	
+	 *  @return HeadingHold headingHold - the travelTo heading controller, with the error statistics of the last segment
+	 *  @since 3.0
+	 */
+	public HeadingHold getHeadingHold() {
+		return headingHold;
+	}
+	
+	/**
+	 *  Accessor
+	 * 	
+	 *  @return long retries - the turns travelTo made after stopping off the point
+	 *  @since 3.0
+	 */
+	public long getRetryCount() {
+		return retries;
+	}
+
+	/**
+	 *  Follow a path without stopping at the waypoints (pure pursuit). The
+	 *  robot steers towards the point one lookahead distance ahead on the
+	 *  path. It only stops at the waypoints where the path doubles back, and
+	 *  turns in place when the pursuit point is behind it
+	 * 	
+	 *  @param double[] path - the waypoints {x0, y0, x1, y1, ...} in cm
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void followPath(double[] path) {
+		followPath(path, new CancellationToken());
+	}
+	
+	/**
+	 *  Follow a path without stopping at the waypoints, can be cancelled
+	 * 	
+	 *  @param double[] path - the waypoints {x0, y0, x1, y1, ...} in cm
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	public boolean followPath(double[] path, CancellationToken token) {
+		return drive(WaypointStream.of(path), token);
+	}
+	
+	/**
+	 *  Drive through the waypoints of a stream, can be cancelled
+	 * 	
+	 *  @param WaypointStream waypoints
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	public boolean drive(WaypointStream waypoints, CancellationToken token) {
+		startMotion(token);
+		
+		// The path starts at the current position, then at the last waypoint reached
+		Pose pose = odometer.getPose();
+		double startX = pose.getX();
+		double startY = pose.getY();
+		double[] points = null;
+		int version = -1;
+		int segment = 0, end = 0, last = 0;
+		long tick = odometer.getTickCount();
+		while (true) {
+			if (token.isCancelled())
+				return stopMotion(token);
+			
+			// Pick up the new waypoints
+			if (waypoints.getVersion() != version) {
+				version = waypoints.getVersion();
+				double[] pending = waypoints.getPending();
+				points = new double[pending.length + 2];
+				points[0] = startX;
+				points[1] = startY;
+				System.arraycopy(pending, 0, points, 2, pending.length);
+				last = points.length/2 - 1;
+				segment = 0;
+				end = nextStop(points, segment);
+				if (last > 0) {
+					destX = points[2*last];
+					destY = points[2*last + 1];
+				}
+			}
+			
+			// Nothing left, done or wait for more
+			if (last == 0) {
+				setSpeeds(0, 0);
+				if (waypoints.isClosed())
+					return true;
+				waypoints.waitForChange(version, odometer.getScheduler().getPeriod());
+				continue;
+			}
+			
+			pose = odometer.getPose();
+			currentX = pose.getX();
+			currentY = pose.getY();
+			
+			// Move on to the next segment once the robot is past the end of this one
+			int reached = 0;
+			while (segment + reached < end - 1 && projection(points, segment + reached, currentX, currentY) >= 1.0)
+				reached++;
+			
+			double remaining = Math.hypot(points[2*end] - currentX, points[2*end + 1] - currentY);
+			if (remaining < ARRIVAL_DISTANCE || (segment + reached == end - 1 && projection(points, end - 1, currentX, currentY) >= 1.0))
+				reached = end - segment;
+			if (reached > 0) {
+				// Replaced meanwhile, the refined waypoints are picked up from the same start
+				if (waypoints.reached(reached, version)) {
+					startX = points[2*(segment + reached)];
+					startY = points[2*(segment + reached) + 1];
+				}
+				continue;
+			}
+			
+			// Steer on the arc through the pursuit point
+			findPursuitPoint(points, segment, end, currentX, currentY);
+			double dx = pursuitPoint[0] - currentX;
+			double dy = pursuitPoint[1] - currentY;
+			double alpha = Math.atan2(dy, dx) - pose.getTheta();
+			alpha = Math.atan2(Math.sin(alpha), Math.cos(alpha));
+			
+			if (Math.abs(alpha) > MAX_PURSUIT_ANGLE) {
+				setSpeeds(0, 0);
+				angleToTurn = alpha;
+				if (!turn(alpha, token))
+					return false;
+				tick = odometer.getTickCount();
+				continue;
+			}
+			
+			// Slow down before a stop, the last waypoint of an open stream is one too
+			double curvature = 2*Math.sin(alpha)/Math.hypot(dx, dy);
+			double speed = FORWARD_SPEED*Math.max(MIN_SPEED_RATIO, Math.min(1.0, remaining/SLOWDOWN_DISTANCE));
+			setSpeeds((float) (speed*(1 - curvature*width/2)), (float) (speed*(1 + curvature*width/2)));
+			
+			tick = odometer.waitForUpdate(tick);
+		}
+	}
+	
+	/**
+	 *  Mutator
+	 * 	
+	 *  @param double lookahead - the pure pursuit lookahead distance in cm, shorter follows the path closer, longer is smoother
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void setLookahead(double lookahead) {
+		this.lookahead = lookahead;
+	}
+	
+	/**
+	 *  Position of a point along a path segment
+	 * 	
+	 *  @param double[] points - the path
+	 *  @param int segment - the segment index
+	 *  @param double x
+	 *  @param double y
+	 *  @return double t - 0 at the start of the segment, 1 at its end
+	 *  @since 3.0
+	 */
+	private static double projection(double[] points, int segment, double x, double y) {
+		double ax = points[2*segment], ay = points[2*segment + 1];
+		double bx = points[2*segment + 2], by = points[2*segment + 3];
+		double length = (bx - ax)*(bx - ax) + (by - ay)*(by - ay);
+		if (length == 0)
+			return 1.0;
+		return ((x - ax)*(bx - ax) + (y - ay)*(by - ay))/length;
+	}
+	
+	/**
+	 *  Find the next waypoint where the path turns by more than a right angle,
+	 *  the robot stops there instead of cutting back across the path
+	 * 	
+	 *  @param double[] points - the path
+	 *  @param int segment - the current segment index
+	 *  @return int end - the index of the waypoint
+	 *  @since 3.0
+	 */
+	private static int nextStop(double[] points, int segment) {
+		int last = points.length/2 - 1;
+		for (int i = segment + 1; i < last; i++) {
+			double inX = points[2*i] - points[2*i - 2], inY = points[2*i + 1] - points[2*i - 1];
+			double outX = points[2*i + 2] - points[2*i], outY = points[2*i + 3] - points[2*i + 1];
+			if (inX*outX + inY*outY < 0)
+				return i;
+		}
+		return last;
+	}
+	
+	/**
+	 *  Find the furthest point of the path one lookahead away from the robot,
+	 *  the end of the current segment if the robot is further than that
+	 * 	
+	 *  @param double[] points - the path
+	 *  @param int segment - the current segment index
+	 *  @param int end - the index of the waypoint the robot stops at
+	 *  @param double x - robot x
+	 *  @param double y - robot y
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	private void findPursuitPoint(double[] points, int segment, int end, double x, double y) {
+		pursuitPoint[0] = points[2*segment + 2];
+		pursuitPoint[1] = points[2*segment + 3];
 		
-		// Set the motors speed forward
-		passed = false;
-		onPoint = false;
-		setSpeeds(FORWARD_SPEED, FORWARD_SPEED);
+		for (int s = segment; s < end; s++) {
+			double ax = points[2*s] - x, ay = points[2*s + 1] - y;
+			double bx = points[2*s + 2] - x, by = points[2*s + 3] - y;
+			
+			// The path ends inside the circle
+			if (s == end - 1 && bx*bx + by*by <= lookahead*lookahead) {
+				pursuitPoint[0] = points[2*s + 2];
+				pursuitPoint[1] = points[2*s + 3];
+				return;
+			}
+			
+			// Furthest intersection of the segment with the circle
+			double dx = bx - ax, dy = by - ay;
+			double a = dx*dx + dy*dy;
+			double b = 2*(ax*dx + ay*dy);
+			double c = ax*ax + ay*ay - lookahead*lookahead;
+			double discriminant = b*b - 4*a*c;
+			if (a > 0 && discriminant >= 0) {
+				double t = (-b + Math.sqrt(discriminant))/(2*a);
+				if (t >= 0 && t <= 1) {
+					pursuitPoint[0] = points[2*s] + t*dx;
+					pursuitPoint[1] = points[2*s + 1] + t*dy;
+				}
+			}
+			
+			// Later segments would cut the corner
+			if (bx*bx + by*by > lookahead*lookahead)
+				return;
+		}
+	}
+	
+	/**
+	 *  Drive an arc
+	 * 	
+	 *  @param double radius - of the path of the robot center in cm, 0 turns in place
+	 *  @param double sweep - heading change in rads, positive turns left
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void arc(double radius, double sweep){
+		arc(radius, sweep, new CancellationToken());
+	}
+	
+	/**
+	 *  Drive an arc, can be cancelled
+	 * 	
+	 *  @param double radius - of the path of the robot center in cm, 0 turns in place
+	 *  @param double sweep - heading change in rads, positive turns left
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	public boolean arc(double radius, double sweep, CancellationToken token){
+		startMotion(token);
+		int left = convertDistance(wheelRadius, (radius - width/2)*sweep);
+		int right = convertDistance(wheelRadius, (radius + width/2)*sweep);
+		TelemetryRecorder.recordMotor(TelemetryRecorder.ROTATE, left, right, FORWARD_SPEED);
+		return runProfile(trajectory.plan(left, right, FORWARD_SPEED), token);
+	}
+	
+	/**
+	 *  Go to a point along the fastest arc and line, instead of turning in
+	 *  place and driving
+	 * 	
+	 *  @param double x - in cm
+	 *  @param double y - in cm
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	public boolean arcTo(double x, double y, CancellationToken token){
+		return arcTo(x, y, Double.NaN, token);
+	}
+	
+	/**
+	 *  Go to a pose along the fastest arc-line-arc manoeuvre, this replaces a
+	 *  turn, a travelTo and a turnTo. The rest of the manoeuvre is planned
+	 *  again from the odometer after every segment, so the errors of the
+	 *  transitions are corrected on the way
+	 * 	
+	 *  @param double x - in cm
+	 *  @param double y - in cm
+	 *  @param double heading - the final heading in rads, NaN if free
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	public boolean arcTo(double x, double y, double heading, CancellationToken token){
+		startMotion(token);
+		destX = x;
+		destY = y;
+		for (int replan = 0; ; replan++) {
+			Pose pose = odometer.getPose();
+			DubinsPlanner.Manoeuvre manoeuvre = Double.isNaN(heading)
+					? dubins.planToPoint(pose.getX(), pose.getY(), pose.getTheta(), x, y)
+					: dubins.plan(pose.getX(), pose.getY(), pose.getTheta(), x, y, heading);
+			if (manoeuvre.getSegmentCount() <= 1 || replan == MAX_REPLANS)
+				return runManoeuvre(manoeuvre, token);
+			if (!runSegment(manoeuvre, 0, token))
+				return false;
+		}
+	}
+	
+	/**
+	 *  Accessor
+	 * 	
+	 *  @return DubinsPlanner dubins - plans the arcTo manoeuvres
+	 *  @since 3.0
+	 */
+	public DubinsPlanner getDubinsPlanner(){
+		return dubins;
+	}
+	
+	/**
+	 *  Drive the segments of a manoeuvre, only stopping where a wheel
+	 *  reverses. The last segment is a profile to the total of both wheels,
+	 *  so the wheel errors of the transitions do not add up
+	 * 	
+	 *  @param DubinsPlanner.Manoeuvre manoeuvre
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	public boolean runManoeuvre(DubinsPlanner.Manoeuvre manoeuvre, CancellationToken token){
+		startMotion(token);
+		int count = manoeuvre.getSegmentCount();
+		int leftStart = leftMotor.getTachoCount();
+		int rightStart = rightMotor.getTachoCount();
+		double leftTotal = 0, rightTotal = 0;
 		
-		// While it is navigating, update odometer and US distance
-		while (isNavigating()){
-			currentX = odometer.getX();
-			currentY = odometer.getY();
+		for (int i = 0; i < count; i++) {
+			leftTotal += manoeuvre.getLeftDistance(i);
+			rightTotal += manoeuvre.getRightDistance(i);
+			if (i < count - 1 && !runSegment(manoeuvre, i, token))
+				return false;
 		}
 		
-		if (onPoint == false){
-			travelTo(destX, destY);
+		int left = convertDistance(wheelRadius, leftTotal) - (leftMotor.getTachoCount() - leftStart);
+		int right = convertDistance(wheelRadius, rightTotal) - (rightMotor.getTachoCount() - rightStart);
+		TelemetryRecorder.recordMotor(TelemetryRecorder.ROTATE, left, right, FORWARD_SPEED);
+		return runProfile(trajectory.plan(left, right, FORWARD_SPEED), token);
+	}
+	
+	/**
+	 *  Drive one segment of a manoeuvre. It runs at cruise speed without
+	 *  stopping at its end, until the fastest wheel has covered its distance,
+	 *  unless the next segment reverses a wheel: the robot would keep turning
+	 *  while that wheel ramps through zero, so it stops on a profile instead
+	 * 	
+	 *  @param DubinsPlanner.Manoeuvre manoeuvre
+	 *  @param int segment - not the last one
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	private boolean runSegment(DubinsPlanner.Manoeuvre manoeuvre, int segment, CancellationToken token){
+		double left = manoeuvre.getLeftDistance(segment)*180/(Math.PI*wheelRadius);
+		double right = manoeuvre.getRightDistance(segment)*180/(Math.PI*wheelRadius);
+		double outer = Math.max(Math.abs(left), Math.abs(right));
+		if (outer < TACHO_TOLERANCE)
+			return true;
+		if (left*manoeuvre.getLeftDistance(segment + 1) < 0 || right*manoeuvre.getRightDistance(segment + 1) < 0)
+			return runProfile(trajectory.plan((int) Math.round(left), (int) Math.round(right), FORWARD_SPEED), token);
+		
+		setSpeeds((float) (FORWARD_SPEED*left/outer), (float) (FORWARD_SPEED*right/outer));
+		
+		// Wait for the fastest wheel to pass its target
+		WheelMotor motor = Math.abs(left) >= Math.abs(right) ? leftMotor : rightMotor;
+		double target = Math.abs(left) >= Math.abs(right) ? left : right;
+		int start = motor.getTachoCount();
+		long tick = odometer.getTickCount();
+		long deadline = Clock.nanoTime() + (long) ((outer/FORWARD_SPEED*PROFILE_TIMEOUT + 1)*1e9);
+		while (Math.signum(target)*(motor.getTachoCount() - start - target) < 0 && Clock.nanoTime() < deadline) {
+			tick = odometer.waitForUpdate(tick);
+			if (token.isCancelled())
+				return stopMotion(token);
 		}
+		return true;
 	}
-
 	
 	/**
 	 *  Turn to the desired angle (rads)
@@ -200,6 +895,19 @@ public class Navigation {
 	 *  @since 2.0
 	 */
 	public void turn(double tetha){
+		turn(tetha, new CancellationToken());
+	}
+	
+	/**
+	 *  Turn by an angle, can be cancelled
+	 * 	
+	 *  @param double tetha - angle to turn in rads
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	public boolean turn(double tetha, CancellationToken token){
+		startMotion(token);
 		if (tetha > Math.PI){
 			tetha -= Math.PI*2;
 		}
@@ -207,11 +915,10 @@ public class Navigation {
 			tetha += Math.PI*2;
 		}
 		
-		leftMotor.setSpeed(ROTATE_SPEED);
-		rightMotor.setSpeed(ROTATE_SPEED);
 		// Turn right
-		leftMotor.rotate(-convertAngle(wheelRadius, width, tetha*180/Math.PI), true);
-		rightMotor.rotate(convertAngle(wheelRadius, width, tetha*180/Math.PI), false);
+		int angle = convertAngle(wheelRadius, width, tetha*180/Math.PI);
+		TelemetryRecorder.recordMotor(TelemetryRecorder.ROTATE, -angle, angle, ROTATE_SPEED);
+		return runProfile(trajectory.plan(-angle, angle, ROTATE_SPEED), token);
 	}
 	
 	/**
@@ -222,9 +929,22 @@ public class Navigation {
 	 *  @since 2.0
 	 */
 	public void turnTo(double tetha){
+		turnTo(tetha, new CancellationToken());
+	}
+	
+	/**
+	 *  Turn to a heading, can be cancelled
+	 * 	
+	 *  @param double tetha - angle to turn to in rads
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	public boolean turnTo(double tetha, CancellationToken token){
+		startMotion(token);
 		angleToTurn = tetha - odometer.getTheta();
-		turn(angleToTurn);
-;	}
+		return turn(angleToTurn, token);
+	}
 	
 	/**
 	 *  Turn to desired angle, relative to xy plane
@@ -235,26 +955,156 @@ public class Navigation {
 	 *  @since 1.0
 	 */
 	public void turnTo(double angle, boolean stop) {
-		double error = angle - this.odometer.getTheta(true);
-
-		while (Math.abs(error) > DEGREE_ERR) {
-
-			error = angle - this.odometer.getTheta(true);
-
-			if (error < -180.0) {
-				this.setSpeeds(-ROTATE_SPEED, ROTATE_SPEED);
-			} else if (error < 0.0) {
-				this.setSpeeds(ROTATE_SPEED, -ROTATE_SPEED);
-			} else if (error > 180.0) {
-				this.setSpeeds(ROTATE_SPEED, -ROTATE_SPEED);
+		turnTo(angle, stop, new CancellationToken());
+	}
+	
+	/**
+	 *  Turn to desired angle, relative to xy plane, can be cancelled. The
+	 *  wheel speed is proportional to the heading error, capped by the turn
+	 *  speed and by what the slip bound can still brake, so the robot slows
+	 *  down as it nears the heading instead of overshooting it. The turn is
+	 *  done once the error stays within the tolerance for the settle ticks.
+	 *  The turn gives up once it took TURN_MARGIN longer than its profile
+	 *  
+	 *  @param double angle - angle to turn in degrees
+	 *  @param boolean stop - if true, stop the wheels and settle, otherwise return as soon as the heading is reached
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled, or it timed out off the heading
+	 *  @since 3.0
+	 */
+	public boolean turnTo(double angle, boolean stop, CancellationToken token) {
+		startMotion(token);
+		long start = Clock.nanoTime();
+		double acceleration = trajectory.getMaxAcceleration();
+		long tick = odometer.getTickCount();
+		int settled = 0;
+		double error = headingError(angle);
+		long deadline = start + (long) ((getTurnDuration(error, acceleration) + TURN_MARGIN)*1e9);
+		
+		while (settled < settleTicks && Clock.nanoTime() < deadline) {
+			if (Math.abs(error) <= turnTolerance) {
+				if (!stop)
+					break;
+				this.setSpeeds(0, 0);
+				settled++;
 			} else {
-				this.setSpeeds(-ROTATE_SPEED, ROTATE_SPEED);
+				// Wheel rotation left to do, in degrees
+				double remaining = convertAngle(wheelRadius, width, Math.abs(error));
+				double speed = Math.min(turnGain*remaining, Math.sqrt(2*acceleration*remaining));
+				speed = Math.max(MIN_TURN_SPEED, Math.min(ROTATE_SPEED, speed));
+				if (error < 0)
+					this.setSpeeds((float) speed, (float) -speed);
+				else
+					this.setSpeeds((float) -speed, (float) speed);
+				settled = 0;
 			}
+			
+			// The heading only changes on an odometer update
+			tick = odometer.waitForUpdate(tick);
+			if (token.isCancelled())
+				return stopMotion(token);
+			error = headingError(angle);
 		}
 
 		if (stop) {
 			this.setSpeeds(0, 0);
 		}
+		turnTime = (Clock.nanoTime() - start)/1000000.0;
+		turnError = error;
+		turnTimedOut = Math.abs(error) > turnTolerance;
+		TelemetryRecorder.recordMotor(TelemetryRecorder.TURN, turnTime, turnError, settled);
+		if (turnTimedOut) {
+			System.err.println("Error: turnTo timed out " + error + " degrees off the heading");
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 *  Expected duration of a closed-loop turn: the ramp up to the turn
+	 *  speed, the cruise, the proportional slowdown down to the minimum
+	 *  speed, and the settle ticks
+	 *  
+	 *  @param double error - the heading error in degrees
+	 *  @param double acceleration - in wheel deg/s^2
+	 *  @return double duration - in s
+	 *  @since 3.0
+	 */
+	private double getTurnDuration(double error, double acceleration) {
+		double remaining = convertAngle(wheelRadius, width, Math.abs(error));
+		double slowdown = (Math.log((double) ROTATE_SPEED/MIN_TURN_SPEED) + 1)/turnGain;
+		double settle = settleTicks*odometer.getScheduler().getPeriod()/1000.0;
+		return ROTATE_SPEED/acceleration + remaining/ROTATE_SPEED + slowdown + settle;
+	}
+	
+	/**
+	 *  Shortest signed difference between a heading and the odometer
+	 *  
+	 *  @param double angle - the heading in degrees
+	 *  @return double error - in degrees, between -180 and 180, positive counterclockwise
+	 *  @since 3.0
+	 */
+	private double headingError(double angle) {
+		double error = (angle - this.odometer.getTheta(true)) % 360.0;
+		if (error > 180.0)
+			error -= 360.0;
+		else if (error < -180.0)
+			error += 360.0;
+		return error;
+	}
+	
+	/**
+	 *  Mutator
+	 *  
+	 *  @param double gain - the turn speed in wheel deg/s per wheel degree left, higher turns faster but may overshoot
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void setTurnGain(double gain) {
+		this.turnGain = gain;
+	}
+	
+	/**
+	 *  Mutator
+	 *  
+	 *  @param double tolerance - the heading error a turn may end with, in degrees
+	 *  @param int ticks - the odometer updates the error must stay within the tolerance
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void setTurnSettle(double tolerance, int ticks) {
+		this.turnTolerance = tolerance;
+		this.settleTicks = Math.max(1, ticks);
+	}
+	
+	/**
+	 *  Accessor
+	 *  
+	 *  @return double time - the duration of the last closed-loop turn in ms
+	 *  @since 3.0
+	 */
+	public double getTurnTime() {
+		return turnTime;
+	}
+	
+	/**
+	 *  Accessor
+	 *  
+	 *  @return double error - the heading error at the end of the last closed-loop turn in degrees
+	 *  @since 3.0
+	 */
+	public double getTurnError() {
+		return turnError;
+	}
+	
+	/**
+	 *  Accessor
+	 *  
+	 *  @return boolean timedOut - true if the last closed-loop turn ran out of time off the heading
+	 *  @since 3.0
+	 */
+	public boolean isTurnTimedOut() {
+		return turnTimedOut;
 	}
 	
 	/**
@@ -265,35 +1115,54 @@ public class Navigation {
 	 *  @since 1.0
 	 */
 	public void goForward(double distance) {
-		//this.travelTo(Math.cos(Math.toRadians(this.odometer.getTheta())) * distance, Math.cos(Math.toRadians(this.odometer.getTheta())) * distance);
-		leftMotor.setSpeed(FORWARD_SPEED);
-		rightMotor.setSpeed(FORWARD_SPEED);
-		leftMotor.rotate(convertDistance(wheelRadius, distance), true);
-		rightMotor.rotate(convertDistance(wheelRadius, distance), false);
-
+		goForward(distance, new CancellationToken());
 	}
 	
 	/**
-	 *  Check for the position while it's moving
+	 * Go foward a set distance in cm, can be cancelled
 	 * 	
-	 *  @return boolean navigating - true if the robot is navigating
-	 *  @since 1.0
+	 *  @param double distance - distance to go forward in cm
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
 	 */
-	private boolean isNavigating(){
-		while (Math.abs((int) currentX - destX) > 1 || Math.abs((int) currentY - destY) > 1){
-			if (Math.abs((int) currentX - destX) < 10 && Math.abs((int) currentY - destY) < 10){
-				passed = true;
-			}
-			if (Math.abs((int) currentX - destX) > 10 && Math.abs((int) currentY - destY) > 10 && passed == true ){
-				setSpeeds(0,0);
-				return false;
-			}
-			return true;
+	public boolean goForward(double distance, CancellationToken token) {
+		startMotion(token);
+		int angle = convertDistance(wheelRadius, distance);
+		TelemetryRecorder.recordMotor(TelemetryRecorder.ROTATE, angle, angle, FORWARD_SPEED);
+		return runProfile(trajectory.plan(angle, angle, FORWARD_SPEED), token);
+	}
+	
+	/**
+	 *  Run a wheel profile, checking the token on every odometer update
+	 * 	
+	 *  @param TrajectoryGenerator.Profile profile
+	 *  @param CancellationToken token
+	 *  @return boolean completed - false if it was cancelled
+	 *  @since 3.0
+	 */
+	private boolean runProfile(TrajectoryGenerator.Profile profile, CancellationToken token) {
+		int leftStart = leftMotor.getTachoCount();
+		int rightStart = rightMotor.getTachoCount();
+		trajectory.execute(profile, true);
+		speedAcceleration = false;
+		
+		long tick = odometer.getTickCount();
+		long deadline = Clock.nanoTime() + (long) ((profile.duration*PROFILE_TIMEOUT + 1)*1e9);
+		while (Math.abs(leftMotor.getTachoCount() - leftStart) < Math.abs(profile.leftAngle) - TACHO_TOLERANCE
+				|| Math.abs(rightMotor.getTachoCount() - rightStart) < Math.abs(profile.rightAngle) - TACHO_TOLERANCE) {
+			if (token.isCancelled())
+				return stopMotion(token);
+			if (Clock.nanoTime() > deadline)
+				break;
+			tick = odometer.waitForUpdate(tick);
 		}
-		// Stop the motors when on the point, set onPoint to true
-		setSpeeds(0,0);
-		onPoint = true;
-		return false;
+		
+		leftMotor.waitComplete();
+		rightMotor.waitComplete();
+		if (token.isCancelled())
+			return stopMotion(token);
+		return true;
 	}
 	
 	/**
@@ -309,18 +1178,9 @@ public class Navigation {
 	private double getAngle(double initialX, double initialY, double finalX, double finalY){
 		double xDiff = finalX - initialX;
 		double yDiff = finalY - initialY;
-		double tetha = 0;
 		
-		if (xDiff > 0){
-			tetha = Math.atan(yDiff/xDiff);
-		}
-		else if (xDiff < 0 && yDiff > 0) {
-			tetha = Math.atan(yDiff/xDiff) + Math.PI;
-		}
-		else if (xDiff < 0 && yDiff < 0) {
-			tetha = Math.atan(yDiff/xDiff) - Math.PI;
-		}		
-		return tetha;
+		// atan2 also covers the points straight above, below or behind
+		return Math.atan2(yDiff, xDiff);
 	}
 	
 	/**
@@ -331,11 +1191,7 @@ public class Navigation {
 	 *  @since 1.0
 	 */
 	public static void wait(double seconds){
-		try {
-			Thread.sleep((long) (seconds*1000));
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+		Clock.sleep((long) (seconds*1000));
 	}
 	
 	/**
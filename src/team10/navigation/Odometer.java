@@ -1,30 +1,47 @@
 package team10.navigation;
 
-import lejos.hardware.ev3.LocalEV3;
-import lejos.hardware.motor.EV3LargeRegulatedMotor;
+import team10.telemetry.TelemetryRecorder;
 
 /**
  * Handles odometer functions for robot
  * 
  * @author Mathieu Tougas
- * @version 2.0
+ * @version 3.0
  * 
  */
 
 public class Odometer extends Thread {
-	public static final EV3LargeRegulatedMotor leftMotor = new EV3LargeRegulatedMotor(LocalEV3.get().getPort("B"));
-	public static final EV3LargeRegulatedMotor rightMotor = new EV3LargeRegulatedMotor(LocalEV3.get().getPort("C"));
+	private final WheelMotor leftMotor, rightMotor;
 	// robot position
 	private double x, y, theta;
 	private int leftMotorTachoCount, rightMotorTachoCount;
-	// Static ressources
-	private static final double WHEEL_RADIUS = 2.1;
-	private static final double WHEEL_BASE = 14.43;
+	// Static ressources, the geometry comes from the calibration file
+	private static final RobotConfig CONFIG = RobotConfig.load();
+	private static final double WHEEL_RADIUS = CONFIG.getWheelRadius();
+	private static final double WHEEL_BASE = CONFIG.getWheelBase();
 	private static final long ODOMETER_PERIOD = 25;
-	
+	private static final int HISTORY_SIZE = 128;
+	private static final double ADAPTIVE_FULL_DIFF = 8.0;
+	private static final double VELOCITY_TIME_CONSTANT = 0.05;
+	private final FixedRateScheduler scheduler;
+	private final PoseHistory history;
+	private final double[] integration;
+	private volatile PoseIntegrator.Mode integrationMode;
+	private volatile long minPeriod, maxPeriod;
+	private volatile boolean adaptivePeriod;
+	private volatile OdometerListener[] listeners;
+	private final Object tick;
+	private volatile long ticks;
+	// number of times the position was set or corrected
+	private volatile long jumps;
+	// filtered velocities, only written by update
+	private volatile double linearVelocity, angularVelocity;
+	private long lastUpdate;
 
-	// lock object for mutual exclusion
+	// lock object for mutual exclusion between writers
 	private Object lock;
+	// latest published pose, readers never take the lock
+	private volatile Pose pose;
 
 	/**
 	 *  Constructor
@@ -32,12 +49,35 @@ public class Odometer extends Thread {
 	 *  @since 1.0
 	 */
 	public Odometer() {
+		this(new EV3WheelMotor("B"), new EV3WheelMotor("C"), ODOMETER_PERIOD, FixedRateScheduler.Policy.SKIP);
+	}
+	
+	/**
+	 *  Constructor
+	 * 	
+	 *  @param WheelMotor left - the left wheel motor
+	 *  @param WheelMotor right - the right wheel motor
+	 *  @param long period - the update period in ms
+	 *  @param FixedRateScheduler.Policy policy - what to do with late ticks
+	 *  @since 3.0
+	 */
+	public Odometer(WheelMotor left, WheelMotor right, long period, FixedRateScheduler.Policy policy) {
+		this.leftMotor = left;
+		this.rightMotor = right;
+		this.scheduler = new FixedRateScheduler(period, policy);
+		this.history = new PoseHistory(HISTORY_SIZE);
+		this.integration = new double[3];
+		this.integrationMode = PoseIntegrator.Mode.ARC;
+		this.adaptivePeriod = false;
+		this.listeners = new OdometerListener[0];
 		this.x = 0.0;
 		this.y = 0.0;
 		this.theta = 0.0;
 		this.leftMotorTachoCount = 0;
 		this.rightMotorTachoCount = 0;
 		lock = new Object();
+		tick = new Object();
+		publish();
 	}
 	
 	/**
@@ -60,6 +100,16 @@ public class Odometer extends Thread {
 		return WHEEL_BASE;
 	}
 
+	/**
+	 *  Return the configuration loaded at startup
+	 * 
+	 * 	@return RobotConfig config
+	 *  @since 3.0
+	 */
+	public static RobotConfig getConfig(){
+		return CONFIG;
+	}
+
 	/**
 	 *  Runs the odometer as a thread
 	 * 	
@@ -67,70 +117,246 @@ public class Odometer extends Thread {
 	 *  @since 1.0
 	 */
 	public void run() {
-		long updateStart, updateEnd;
+		scheduler.start();
 
 		while (true) {
-			updateStart = System.currentTimeMillis();
-			
-			// Get tacho count from each motor
-			int rightTacho = rightMotor.getTachoCount();
-			int leftTacho = leftMotor.getTachoCount();
-			
-			// Get the tacho difference between this reading and the previous one. Multiplication by 1000 helps to keep accuracy for integers
-			int rightTachoDiff = (rightTacho - getRightMotorTachoCount())*1000;
-			int leftTachoDiff = (leftTacho - getLeftMotorTachoCount())*1000;
-			
-			// Calculate the distance covered by mutliplying the tacho count difference by the wheel radius and the angle covered. Division by 1000
-			double rightDist = rightTachoDiff*(Math.PI/180)*WHEEL_RADIUS/1000;
-			double leftDist = leftTachoDiff*(Math.PI/180)*WHEEL_RADIUS/1000;
-			double totalDist = (rightDist + leftDist)/2;
-			
-			// Calculate the angle by substracting the right from the left distance covered
-			double thetaAngle = (rightDist - leftDist)/WHEEL_BASE;
-			
-			// Set tacho count for the motors
-			setLeftMotorTachoCount(leftTacho);
-			setRightMotorTachoCount(rightTacho);
+			update();
+
+			// this ensures that the odometer runs at a fixed rate, without drift
+			scheduler.waitForNextTick();
+		}
+	}
+
+	/**
+	 *  Read the tacho counts and update the position once
+	 * 	
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void update() {
+		// Get tacho count from each motor
+		int rightTacho = rightMotor.getTachoCount();
+		int leftTacho = leftMotor.getTachoCount();
+		TelemetryRecorder.recordTacho(leftTacho, rightTacho);
+		
+		// Get the tacho difference between this reading and the previous one. Multiplication by 1000 helps to keep accuracy for integers
+		int rightTachoDiff = (rightTacho - getRightMotorTachoCount())*1000;
+		int leftTachoDiff = (leftTacho - getLeftMotorTachoCount())*1000;
+		
+		// Calculate the distance covered by mutliplying the tacho count difference by the wheel radius and the angle covered. Division by 1000
+		double rightDist = rightTachoDiff*(Math.PI/180)*WHEEL_RADIUS/1000;
+		double leftDist = leftTachoDiff*(Math.PI/180)*WHEEL_RADIUS/1000;
+		
+		// Set tacho count for the motors
+		setLeftMotorTachoCount(leftTacho);
+		setRightMotorTachoCount(rightTacho);
+		
+
+		synchronized (lock) {
+			/**
+			 * Don't use the variables x, y, or theta anywhere but here!
+			 * Only update the values of x, y, and theta in this block. 
+			 * 
+			 */
+			integration[0] = x;
+			integration[1] = y;
+			integration[2] = theta;
+			PoseIntegrator.step(integrationMode, integration, leftDist, rightDist, WHEEL_BASE);
+			x = integration[0];
+			y = integration[1];
+			theta = integration[2];
 			
+			// Publish the new pose for the readers
+			publish();
+		}
+		
+		// Notify the listeners, outside of the lock
+		Pose updated = pose;
+		long timestamp = updated.getTimestamp();
+		TelemetryRecorder.recordPose(updated.getX(), updated.getY(), updated.getTheta());
+		updateVelocity(leftDist, rightDist, timestamp);
+		for (OdometerListener listener : listeners) {
+			listener.odometerUpdated(leftDist, rightDist, timestamp);
+		}
+		
+		// Wake up the threads waiting for this update
+		synchronized (tick) {
+			ticks++;
+			tick.notifyAll();
+		}
+		
+		// Tick faster while turning, slower on straights or when stopped
+		if (adaptivePeriod) {
+			adaptPeriod(leftDist, rightDist);
+		}
+	}
 
-			synchronized (lock) {
-				/**
-				 * Don't use the variables x, y, or theta anywhere but here!
-				 * Only update the values of x, y, and theta in this block. 
-				 * Do not perform complex math
-				 * 
-				 */
-				theta += thetaAngle;
-				setTheta(theta);
-				
-				// Correct for angles greater than 360 degrees
-				if (getTheta() > 2*Math.PI)
-					setTheta(getTheta() - 2*Math.PI);
-				else if (getTheta() < 0) 
-					setTheta(getTheta() + 2*Math.PI);
-				
-				// Set x & y to the new value
-				setX(x + (Math.cos(theta))*totalDist);
-				setY(y + (Math.sin(theta))*totalDist);
-				
-				// Update the display
-				double[] positionArray = {x, y, theta};
-				boolean[] booleanArray = {true, true, true};
-				setPosition(positionArray, booleanArray);
+	/**
+	 *  Low-pass the velocities measured over the last update, the time
+	 *  constant smooths the tacho quantization without lagging a stop
+	 *  
+	 * 	@param double leftDist - distance covered by the left wheel in the last update
+	 * 	@param double rightDist - distance covered by the right wheel in the last update
+	 * 	@param long timestamp - Clock.nanoTime() of the update
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	private void updateVelocity(double leftDist, double rightDist, long timestamp) {
+		double dt = (timestamp - lastUpdate)/1e9;
+		boolean first = lastUpdate == 0;
+		lastUpdate = timestamp;
+		if (first || dt <= 0)
+			return;
+		
+		double alpha = dt/(VELOCITY_TIME_CONSTANT + dt);
+		linearVelocity += alpha*((leftDist + rightDist)/2/dt - linearVelocity);
+		angularVelocity += alpha*((rightDist - leftDist)/WHEEL_BASE/dt - angularVelocity);
+	}
+	
+	/**
+	 *  Accessor
+	 *  
+	 *  @return double velocity - filtered forward speed in cm/s, negative backwards
+	 *  @since 3.0
+	 */
+	public double getLinearVelocity() {
+		return linearVelocity;
+	}
+	
+	/**
+	 *  Accessor
+	 *  
+	 *  @return double velocity - filtered turn rate in rad/s, positive counterclockwise
+	 *  @since 3.0
+	 */
+	public double getAngularVelocity() {
+		return angularVelocity;
+	}
+	
+	/**
+	 *  Pick the next update period from the wheel speed difference
+	 *  
+	 * 	@param double leftDist - distance covered by the left wheel in the last update
+	 * 	@param double rightDist - distance covered by the right wheel in the last update
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	private void adaptPeriod(double leftDist, double rightDist) {
+		long period = scheduler.getPeriod();
+		double speedDiff = Math.abs(rightDist - leftDist)*1000/period;
+		double ratio = Math.min(1.0, speedDiff/ADAPTIVE_FULL_DIFF);
+		scheduler.setPeriod(Math.round(maxPeriod - (maxPeriod - minPeriod)*ratio));
+	}
+	
+	/**
+	 *  Register a listener called on every update, from the odometer thread
+	 *  
+	 *  @param OdometerListener listener
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void addListener(OdometerListener listener) {
+		synchronized (lock) {
+			OdometerListener[] updated = new OdometerListener[listeners.length + 1];
+			System.arraycopy(listeners, 0, updated, 0, listeners.length);
+			updated[listeners.length] = listener;
+			listeners = updated;
+		}
+	}
+	
+	/**
+	 *  Unregister a listener
+	 *  
+	 *  @param OdometerListener listener
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void removeListener(OdometerListener listener) {
+		synchronized (lock) {
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i] == listener) {
+					OdometerListener[] updated = new OdometerListener[listeners.length - 1];
+					System.arraycopy(listeners, 0, updated, 0, i);
+					System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+					listeners = updated;
+					return;
+				}
 			}
+		}
+	}
+	
+	/**
+	 *  Mutator
+	 *  
+	 *  @param PoseIntegrator.Mode mode - how the wheel displacements are integrated
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void setIntegrationMode(PoseIntegrator.Mode mode) {
+		this.integrationMode = mode;
+	}
+	
+	/**
+	 *  Let the update period follow the wheel speed difference
+	 *  
+	 *  @param long minPeriod - period in ms used while turning hard
+	 *  @param long maxPeriod - period in ms used on straights or when stopped
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void setAdaptivePeriod(long minPeriod, long maxPeriod) {
+		this.minPeriod = minPeriod;
+		this.maxPeriod = maxPeriod;
+		this.adaptivePeriod = true;
+	}
+
+	/**
+	 *  Accessor
+	 *  
+	 *  @return long ticks - the number of updates so far
+	 *  @since 3.0
+	 */
+	public long getTickCount() {
+		return ticks;
+	}
 
-			// this ensures that the odometer only runs once every period
-			updateEnd = System.currentTimeMillis();
-			if (updateEnd - updateStart < ODOMETER_PERIOD) {
-				try {
-					Thread.sleep(ODOMETER_PERIOD - (updateEnd - updateStart));
-				} catch (InterruptedException e) {
-					// there is nothing to be done here because it is not
-					// expected that the odometer will be interrupted by
-					// another thread
+	/**
+	 *  Block until the odometer updated after a given tick. When the odometer
+	 *  thread is not running, the clock drives the updates (replay) and it is
+	 *  advanced instead
+	 *  
+	 * 	@param long lastTick - the tick count already seen
+	 *  @return long ticks - the new tick count
+	 *  @since 3.0
+	 */
+	public long waitForUpdate(long lastTick) {
+		while (ticks <= lastTick) {
+			if (!isAlive()) {
+				Clock.sleep(1);
+				continue;
+			}
+			synchronized (tick) {
+				if (ticks <= lastTick) {
+					try {
+						tick.wait(2*scheduler.getPeriod());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return ticks;
+					}
 				}
 			}
 		}
+		return ticks;
+	}
+
+	/**
+	 *  Accessor, gives the missed deadlines and the jitter of the update loop
+	 *  
+	 *  @return FixedRateScheduler scheduler
+	 *  @since 3.0
+	 */
+	public FixedRateScheduler getScheduler() {
+		return scheduler;
 	}
 
 	/**
@@ -142,15 +368,51 @@ public class Odometer extends Thread {
 	 *  @since 1.0
 	 */
 	public void getPosition(double[] position, boolean[] update) {
-		// ensure that the values don't change while the odometer is running
-		synchronized (lock) {
-			if (update[0])
-				position[0] = x;
-			if (update[1])
-				position[1] = y;
-			if (update[2])
-				position[2] = theta;
+		// read a single snapshot so x, y and theta are consistent
+		Pose current = pose;
+		if (update[0])
+			position[0] = current.getX();
+		if (update[1])
+			position[1] = current.getY();
+		if (update[2])
+			position[2] = current.getTheta();
+	}
+	
+	/**
+	 *  Accessor, the pose is immutable and consistent
+	 *  
+	 *  @return Pose pose - the latest published pose
+	 *  @since 3.0
+	 */
+	public Pose getPose() {
+		return pose;
+	}
+	
+	/**
+	 *  Get the position at a past time, interpolated along the travelled arc.
+	 *  Waits for the next update if the time is newer than the last one
+	 *  
+	 * 	@param long timestamp - Clock.nanoTime() to look up
+	 * 	@param double[] position - {x, y, theta} output
+	 *  @return boolean found - false if the time is not covered by the history
+	 *  @since 3.0
+	 */
+	public boolean poseAt(long timestamp, double[] position) {
+		long timeout = Clock.nanoTime() + 2*scheduler.getPeriod()*1000000;
+		while (history.getLatestTimestamp() < timestamp && Clock.nanoTime() < timeout) {
+			Clock.sleep(1);
 		}
+		return history.poseAt(timestamp, position, PoseHistory.Interpolation.ARC);
+	}
+	
+	/**
+	 *  Accessor
+	 *  
+	 *  @return PoseHistory history - the recent timestamped positions
+	 *  @since 3.0
+	 */
+	public PoseHistory getHistory() {
+		return history;
 	}
 	
 	/**
@@ -160,13 +422,7 @@ public class Odometer extends Thread {
 	 *  @since 1.0
 	 */
 	public double getX() {
-		double result;
-
-		synchronized (lock) {
-			result = x;
-		}
-
-		return result;
+		return pose.getX();
 	}
 	
 	/**
@@ -176,13 +432,7 @@ public class Odometer extends Thread {
 	 *  @since 1.0
 	 */
 	public double getY() {
-		double result;
-
-		synchronized (lock) {
-			result = y;
-		}
-
-		return result;
+		return pose.getY();
 	}
 	
 	/**
@@ -192,13 +442,7 @@ public class Odometer extends Thread {
 	 *  @since 1.0
 	 */
 	public double getTheta() {
-		double result;
-
-		synchronized (lock) {
-			result = theta;
-		}
-
-		return result;
+		return pose.getTheta();
 	}
 	
 	/**
@@ -209,11 +453,7 @@ public class Odometer extends Thread {
 	 *  @since 1.0
 	 */
 	public double getTheta(boolean degrees) {
-		double result;
-
-		synchronized (lock) {
-			result = theta;
-		}
+		double result = pose.getTheta();
 		
 		if (degrees == true)
 			result = result*180/Math.PI;
@@ -238,9 +478,65 @@ public class Odometer extends Thread {
 				y = position[1];
 			if (update[2])
 				theta = position[2];
+			history.markDiscontinuity();
+			jumps++;
+			publish();
+		}
+	}
+	
+	/**
+	 *  Shift the position by a correction, under the lock so an update
+	 *  running at the same time is not lost
+	 *  
+	 * 	@param double dx - in cm
+	 * 	@param double dy - in cm
+	 * 	@param double dTheta - in rads
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	public void correct(double dx, double dy, double dTheta) {
+		synchronized (lock) {
+			x += dx;
+			y += dy;
+			theta = (theta + dTheta)%(2*Math.PI);
+			if (theta < 0)
+				theta += 2*Math.PI;
+			history.markDiscontinuity();
+			jumps++;
+			publish();
+		}
+	}
+	
+	/**
+	 *  Shift the position by a correction, unless the position was set or
+	 *  corrected by someone else since a jump count was read
+	 *  
+	 * 	@param double dx - in cm
+	 * 	@param double dy - in cm
+	 * 	@param double dTheta - in rads
+	 * 	@param long expectedJumps - the jump count the correction was computed for, it grows by one if applied
+	 *  @return boolean applied - false if the position jumped in the meantime
+	 *  @since 3.0
+	 */
+	public boolean correct(double dx, double dy, double dTheta, long expectedJumps) {
+		synchronized (lock) {
+			if (jumps != expectedJumps)
+				return false;
+			correct(dx, dy, dTheta);
+			return true;
 		}
 	}
 	
+	/**
+	 *  Accessor
+	 *  
+	 *  @return long jumps - the number of times the position was set or corrected
+	 *  @since 3.0
+	 */
+	public long getJumpCount() {
+		return jumps;
+	}
+	
 	/**
 	 *  Mutator
 	 *  
@@ -251,6 +547,9 @@ public class Odometer extends Thread {
 	public void setX(double x) {
 		synchronized (lock) {
 			this.x = x;
+			history.markDiscontinuity();
+			jumps++;
+			publish();
 		}
 	}
 	
@@ -264,6 +563,9 @@ public class Odometer extends Thread {
 	public void setY(double y) {
 		synchronized (lock) {
 			this.y = y;
+			history.markDiscontinuity();
+			jumps++;
+			publish();
 		}
 	}
 	
@@ -277,9 +579,24 @@ public class Odometer extends Thread {
 	public void setTheta(double theta) {
 		synchronized (lock) {
 			this.theta = theta;
+			history.markDiscontinuity();
+			jumps++;
+			publish();
 		}
 	}
 	
+	/**
+	 *  Publish the current position as an immutable snapshot, must hold the lock
+	 *  
+	 *  @return No return value
+	 *  @since 3.0
+	 */
+	private void publish() {
+		long now = Clock.nanoTime();
+		pose = new Pose(x, y, theta, now);
+		history.record(now, x, y, theta);
+	}
+	
 	/**
 	 *  Convert the angle from degrees to radians
 	 *  
@@ -339,14 +656,34 @@ public class Odometer extends Thread {
 		}
 	}
 	
+	/**
+	 *  Accessor
+	 * 
+	 *  @return WheelMotor leftMotor - the motor this odometer reads
+	 *  @since 3.0
+	 */
+	public WheelMotor getLeftMotor() {
+		return leftMotor;
+	}
+	
+	/**
+	 *  Accessor
+	 * 
+	 *  @return WheelMotor rightMotor - the motor this odometer reads
+	 *  @since 3.0
+	 */
+	public WheelMotor getRightMotor() {
+		return rightMotor;
+	}
+	
 	/**
 	 * Prevent other actions before the motor has completed its run
 	 * 
 	 * @return No return value
 	 * @since 2.0
 	 */
-	public static void waitTillCompleted(){
-		for (EV3LargeRegulatedMotor motor : new EV3LargeRegulatedMotor[] { leftMotor, rightMotor }) {
+	public void waitTillCompleted(){
+		for (WheelMotor motor : new WheelMotor[] { leftMotor, rightMotor }) {
 			motor.waitComplete();
 		}
 	}
@@ -0,0 +1,24 @@
+package team10.navigation;
+
+/**
+ * Receives every odometer update, called on the odometer thread so it must
+ * return quickly and should not allocate
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public interface OdometerListener {
+
+	/**
+	 *  Called after the odometer published a new position
+	 *
+	 * 	@param double leftDist - distance covered by the left wheel since the last update in cm
+	 * 	@param double rightDist - distance covered by the right wheel since the last update in cm
+	 * 	@param long timestamp - Clock.nanoTime() of the update
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void odometerUpdated(double leftDist, double rightDist, long timestamp);
+}
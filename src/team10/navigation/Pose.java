@@ -0,0 +1,70 @@
+package team10.navigation;
+
+/**
+ * Immutable, timestamped snapshot of the robot position
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public final class Pose {
+	private final double x, y, theta;
+	private final long timestamp;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param double x - in cm
+	 * 	@param double y - in cm
+	 * 	@param double theta - in rads
+	 * 	@param long timestamp - Clock.nanoTime() of the update
+	 *  @since 1.0
+	 */
+	public Pose(double x, double y, double theta, long timestamp) {
+		this.x = x;
+		this.y = y;
+		this.theta = theta;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double x
+	 *  @since 1.0
+	 */
+	public double getX() {
+		return x;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double y
+	 *  @since 1.0
+	 */
+	public double getY() {
+		return y;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double theta - in rads
+	 *  @since 1.0
+	 */
+	public double getTheta() {
+		return theta;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long timestamp - Clock.nanoTime() of the update
+	 *  @since 1.0
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+}
@@ -0,0 +1,190 @@
+package team10.navigation;
+
+/**
+ * Fixed-size ring buffer of timestamped poses. Written by the odometer only,
+ * read without locks or allocation by any other thread
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class PoseHistory {
+	public enum Interpolation { LINEAR, ARC };
+	private static final double MIN_ARC_ANGLE = 1e-6;
+
+	private final int capacity;
+	private final long[] times;
+	private final double[] xs, ys, thetas;
+	private final int[] segments;
+	private int segment;
+
+	// number of samples recorded, published after the sample is written
+	private volatile long count;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param int capacity - the number of samples kept
+	 *  @since 1.0
+	 */
+	public PoseHistory(int capacity) {
+		this.capacity = capacity;
+		this.times = new long[capacity];
+		this.xs = new double[capacity];
+		this.ys = new double[capacity];
+		this.thetas = new double[capacity];
+		this.segments = new int[capacity];
+		this.segment = 0;
+		this.count = 0;
+	}
+
+	/**
+	 *  Record a sample, only one thread may record at a time
+	 *
+	 * 	@param long timestamp - Clock.nanoTime() of the sample
+	 * 	@param double x
+	 * 	@param double y
+	 * 	@param double theta - in rads
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void record(long timestamp, double x, double y, double theta) {
+		long index = count;
+		int slot = (int) (index%capacity);
+		times[slot] = timestamp;
+		xs[slot] = x;
+		ys[slot] = y;
+		thetas[slot] = theta;
+		segments[slot] = segment;
+		count = index + 1;
+	}
+
+	/**
+	 *  Mark a jump in the position (e.g. the position was overridden), the
+	 *  samples on each side of a jump are never interpolated together
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void markDiscontinuity() {
+		segment++;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long timestamp - the timestamp of the newest sample, Long.MIN_VALUE if empty
+	 *  @since 1.0
+	 */
+	public long getLatestTimestamp() {
+		long c = count;
+		if (c == 0)
+			return Long.MIN_VALUE;
+		return times[(int) ((c - 1)%capacity)];
+	}
+
+	/**
+	 *  Get the pose at a given time, interpolated between the two closest samples
+	 *
+	 * 	@param long timestamp - Clock.nanoTime() to look up
+	 * 	@param double[] pose - {x, y, theta} output
+	 * 	@param Interpolation mode - LINEAR or ARC
+	 *  @return boolean found - false if the timestamp is not covered by the history
+	 *  @since 1.0
+	 */
+	public boolean poseAt(long timestamp, double[] pose, Interpolation mode) {
+		while (true) {
+			long c = count;
+			if (c == 0)
+				return false;
+
+			// keep one slot of margin for the sample being written
+			long oldest = Math.max(0, c - capacity + 1);
+			long newest = c - 1;
+			if (timestamp < times[slot(oldest)] || timestamp > times[slot(newest)])
+				return false;
+
+			// binary search for the last sample at or before the timestamp
+			long low = oldest, high = newest;
+			while (low < high) {
+				long mid = (low + high + 1) >>> 1;
+				if (times[slot(mid)] <= timestamp)
+					low = mid;
+				else
+					high = mid - 1;
+			}
+
+			int a = slot(low);
+			int b = slot(Math.min(low + 1, newest));
+			long ta = times[a], tb = times[b];
+			double xa = xs[a], ya = ys[a], thetaA = thetas[a];
+			double xb = xs[b], yb = ys[b], thetaB = thetas[b];
+			boolean sameSegment = segments[a] == segments[b];
+
+			// the writer overtook the reader, retry with the new samples
+			if (low < count - capacity + 1)
+				continue;
+
+			if (tb == ta || !sameSegment) {
+				pose[0] = xa;
+				pose[1] = ya;
+				pose[2] = thetaA;
+				return true;
+			}
+
+			double f = (double) (timestamp - ta)/(tb - ta);
+			interpolate(xa, ya, thetaA, xb, yb, thetaB, f, pose, mode);
+			return true;
+		}
+	}
+
+	/**
+	 *  Interpolate between two poses
+	 *
+	 * 	@param double f - fraction of the way from a to b
+	 * 	@param double[] pose - {x, y, theta} output
+	 * 	@param Interpolation mode - LINEAR or ARC
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	static void interpolate(double xa, double ya, double thetaA, double xb, double yb, double thetaB, double f, double[] pose, Interpolation mode) {
+		double dTheta = thetaB - thetaA;
+		if (dTheta > Math.PI)
+			dTheta -= 2*Math.PI;
+		else if (dTheta < -Math.PI)
+			dTheta += 2*Math.PI;
+
+		double theta = thetaA + f*dTheta;
+		if (theta >= 2*Math.PI)
+			theta -= 2*Math.PI;
+		else if (theta < 0)
+			theta += 2*Math.PI;
+		pose[2] = theta;
+
+		if (mode == Interpolation.LINEAR || Math.abs(dTheta) < MIN_ARC_ANGLE) {
+			pose[0] = xa + f*(xb - xa);
+			pose[1] = ya + f*(yb - ya);
+			return;
+		}
+
+		// constant curvature between the samples: rotate and scale the chord
+		double chord = Math.sqrt((xb - xa)*(xb - xa) + (yb - ya)*(yb - ya));
+		double chordAngle = Math.atan2(yb - ya, xb - xa);
+		double partialChord = chord*Math.sin(f*dTheta/2)/Math.sin(dTheta/2);
+		double partialAngle = chordAngle - (1 - f)*dTheta/2;
+		pose[0] = xa + partialChord*Math.cos(partialAngle);
+		pose[1] = ya + partialChord*Math.sin(partialAngle);
+	}
+
+	/**
+	 *  Convert a sample index into a buffer slot
+	 *
+	 * 	@param long index
+	 *  @return int slot
+	 *  @since 1.0
+	 */
+	private int slot(long index) {
+		return (int) (index%capacity);
+	}
+}
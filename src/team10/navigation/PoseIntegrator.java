@@ -0,0 +1,61 @@
+package team10.navigation;
+
+/**
+ * Integrates the wheel displacements into the robot position
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class PoseIntegrator {
+	public enum Mode { EULER, MIDPOINT, ARC };
+	private static final double MIN_ARC_ANGLE = 1e-9;
+
+	/**
+	 *  Advance the position by one odometer update
+	 *
+	 * 	@param Mode mode - EULER (heading first), MIDPOINT (RK2) or ARC (exact circular arc)
+	 * 	@param double[] pose - {x, y, theta}, updated in place, theta kept in [0, 2pi)
+	 * 	@param double leftDist - distance covered by the left wheel in cm
+	 * 	@param double rightDist - distance covered by the right wheel in cm
+	 * 	@param double wheelBase - the robot track width in cm
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static void step(Mode mode, double[] pose, double leftDist, double rightDist, double wheelBase) {
+		double distance = (rightDist + leftDist)/2;
+		double dTheta = (rightDist - leftDist)/wheelBase;
+		double theta = pose[2];
+
+		switch (mode) {
+		case EULER:
+			pose[0] += Math.cos(theta + dTheta)*distance;
+			pose[1] += Math.sin(theta + dTheta)*distance;
+			break;
+		case MIDPOINT:
+			pose[0] += Math.cos(theta + dTheta/2)*distance;
+			pose[1] += Math.sin(theta + dTheta/2)*distance;
+			break;
+		case ARC:
+			if (Math.abs(dTheta) < MIN_ARC_ANGLE) {
+				pose[0] += Math.cos(theta + dTheta/2)*distance;
+				pose[1] += Math.sin(theta + dTheta/2)*distance;
+			}
+			else {
+				double radius = distance/dTheta;
+				pose[0] += radius*(Math.sin(theta + dTheta) - Math.sin(theta));
+				pose[1] -= radius*(Math.cos(theta + dTheta) - Math.cos(theta));
+			}
+			break;
+		}
+
+		// Correct for angles greater than 360 degrees
+		theta += dTheta;
+		if (theta >= 2*Math.PI)
+			theta -= 2*Math.PI;
+		else if (theta < 0)
+			theta += 2*Math.PI;
+		pose[2] = theta;
+	}
+}
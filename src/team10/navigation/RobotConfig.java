@@ -0,0 +1,178 @@
+package team10.navigation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Robot geometry stored on the brick, written by the calibration routine and
+ * loaded by the odometer at startup. The slip acceleration bounds the motion
+ * profiles, it is only ever edited by hand
+ *
+ * @author Mathieu Tougas
+ * @version 1.1
+ *
+ */
+
+public class RobotConfig {
+	public static final String FILE_NAME = "robot.properties";
+	private static final double DEFAULT_WHEEL_RADIUS = 2.1;
+	private static final double DEFAULT_WHEEL_BASE = 14.43;
+	private static final String WHEEL_RADIUS_KEY = "wheel.radius";
+	private static final double DEFAULT_SLIP_ACCELERATION = 30.0;
+	private static final String WHEEL_BASE_KEY = "wheel.base";
+	private static final String SLIP_ACCELERATION_KEY = "wheel.slipAcceleration";
+
+	private double wheelRadius;
+	private double wheelBase;
+	private double slipAcceleration;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param double wheelRadius - in cm
+	 * 	@param double wheelBase - in cm
+	 *  @since 1.0
+	 */
+	public RobotConfig(double wheelRadius, double wheelBase) {
+		this.wheelRadius = wheelRadius;
+		this.wheelBase = wheelBase;
+		this.slipAcceleration = DEFAULT_SLIP_ACCELERATION;
+	}
+
+	/**
+	 *  Load the configuration file, falls back to the default geometry
+	 *
+	 *  @return RobotConfig config
+	 *  @since 1.0
+	 */
+	public static RobotConfig load() {
+		return load(new File(FILE_NAME));
+	}
+
+	/**
+	 *  Load a configuration file, falls back to the default geometry
+	 *
+	 * 	@param File file
+	 *  @return RobotConfig config
+	 *  @since 1.0
+	 */
+	public static RobotConfig load(File file) {
+		RobotConfig config = new RobotConfig(DEFAULT_WHEEL_RADIUS, DEFAULT_WHEEL_BASE);
+		if (!file.exists())
+			return config;
+
+		Properties properties = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			properties.load(in);
+			config.wheelRadius = Double.parseDouble(properties.getProperty(WHEEL_RADIUS_KEY, Double.toString(DEFAULT_WHEEL_RADIUS)));
+			config.wheelBase = Double.parseDouble(properties.getProperty(WHEEL_BASE_KEY, Double.toString(DEFAULT_WHEEL_BASE)));
+			config.slipAcceleration = Double.parseDouble(properties.getProperty(SLIP_ACCELERATION_KEY, Double.toString(DEFAULT_SLIP_ACCELERATION)));
+		} catch (IOException | NumberFormatException e) {
+			System.err.println("Error: " + e.getMessage());
+			config = new RobotConfig(DEFAULT_WHEEL_RADIUS, DEFAULT_WHEEL_BASE);
+		} finally {
+			close(in);
+		}
+		return config;
+	}
+
+	/**
+	 *  Write the configuration file
+	 *
+	 *  @return No return value
+	 *  @throws IOException
+	 *  @since 1.0
+	 */
+	public void save() throws IOException {
+		save(new File(FILE_NAME));
+	}
+
+	/**
+	 *  Write a configuration file
+	 *
+	 * 	@param File file
+	 *  @return No return value
+	 *  @throws IOException
+	 *  @since 1.0
+	 */
+	public void save(File file) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(WHEEL_RADIUS_KEY, Double.toString(wheelRadius));
+		properties.setProperty(WHEEL_BASE_KEY, Double.toString(wheelBase));
+		properties.setProperty(SLIP_ACCELERATION_KEY, Double.toString(slipAcceleration));
+
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			properties.store(out, "Robot geometry, written by the calibration routine");
+		} finally {
+			close(out);
+		}
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double wheelRadius - in cm
+	 *  @since 1.0
+	 */
+	public double getWheelRadius() {
+		return wheelRadius;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double wheelBase - in cm
+	 *  @since 1.0
+	 */
+	public double getWheelBase() {
+		return wheelBase;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return double slipAcceleration - the highest wheel rim acceleration that does not slip, in cm/s^2
+	 *  @since 1.1
+	 */
+	public double getSlipAcceleration() {
+		return slipAcceleration;
+	}
+
+	/**
+	 *  Mutator
+	 *
+	 * 	@param double slipAcceleration - the highest wheel rim acceleration that does not slip, in cm/s^2
+	 *  @return No return value
+	 *  @since 1.1
+	 */
+	public void setSlipAcceleration(double slipAcceleration) {
+		this.slipAcceleration = slipAcceleration;
+	}
+
+	/**
+	 *  Close a stream, ignoring the errors
+	 *
+	 * 	@param Closeable stream - may be null
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private static void close(Closeable stream) {
+		if (stream == null)
+			return;
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// nothing to do, the file is already read or written
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package team10.navigation;
+
+/**
+ * Builds trapezoidal velocity profiles for a move of both wheels. The wheel
+ * that turns the most gets the fastest profile the slip bound allows, the
+ * other one is scaled so that both wheels start and finish together
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class TrajectoryGenerator {
+	private final double wheelRadius;
+	private final WheelMotor leftMotor, rightMotor;
+	private volatile double slipAcceleration;
+
+	/**
+	 * Speeds and accelerations of both wheels for one move
+	 */
+	public static class Profile {
+		public final int leftAngle, rightAngle;
+		public final float leftSpeed, rightSpeed;
+		public final int leftAcceleration, rightAcceleration;
+		public final double duration;
+
+		private Profile(int leftAngle, int rightAngle, float leftSpeed, float rightSpeed, int leftAcceleration, int rightAcceleration, double duration) {
+			this.leftAngle = leftAngle;
+			this.rightAngle = rightAngle;
+			this.leftSpeed = leftSpeed;
+			this.rightSpeed = rightSpeed;
+			this.leftAcceleration = leftAcceleration;
+			this.rightAcceleration = rightAcceleration;
+			this.duration = duration;
+		}
+	}
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param WheelMotor leftMotor
+	 * 	@param WheelMotor rightMotor
+	 * 	@param double wheelRadius - in cm
+	 * 	@param double slipAcceleration - the highest wheel rim acceleration that does not slip, in cm/s^2
+	 *  @since 1.0
+	 */
+	public TrajectoryGenerator(WheelMotor leftMotor, WheelMotor rightMotor, double wheelRadius, double slipAcceleration) {
+		this.leftMotor = leftMotor;
+		this.rightMotor = rightMotor;
+		this.wheelRadius = wheelRadius;
+		this.slipAcceleration = slipAcceleration;
+		leftMotor.synchronizeWith(rightMotor);
+	}
+
+	/**
+	 *  Mutator
+	 *
+	 * 	@param double slipAcceleration - the highest wheel rim acceleration that does not slip, in cm/s^2
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void setSlipAcceleration(double slipAcceleration) {
+		this.slipAcceleration = slipAcceleration;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return int acceleration - the slip bound as a wheel acceleration in deg/s^2
+	 *  @since 1.0
+	 */
+	public int getMaxAcceleration() {
+		return (int) (slipAcceleration*180/(Math.PI*wheelRadius));
+	}
+
+	/**
+	 *  Build the fastest profile for a move
+	 *
+	 * 	@param int leftAngle - the left wheel rotation in degrees
+	 * 	@param int rightAngle - the right wheel rotation in degrees
+	 * 	@param double maxSpeed - the cruise speed of the fastest wheel in deg/s
+	 *  @return Profile profile
+	 *  @since 1.0
+	 */
+	public Profile plan(int leftAngle, int rightAngle, double maxSpeed) {
+		double angle = Math.max(Math.abs(leftAngle), Math.abs(rightAngle));
+		double acceleration = getMaxAcceleration();
+		if (angle == 0)
+			return new Profile(0, 0, 0, 0, (int) acceleration, (int) acceleration, 0);
+
+		// Triangular when the move is too short to reach the cruise speed
+		double speed = Math.min(maxSpeed, Math.sqrt(angle*acceleration));
+		double duration = angle/speed + speed/acceleration;
+
+		double leftRatio = Math.abs(leftAngle)/angle;
+		double rightRatio = Math.abs(rightAngle)/angle;
+		return new Profile(leftAngle, rightAngle,
+				(float) (speed*leftRatio), (float) (speed*rightRatio),
+				Math.max(1, (int) (acceleration*leftRatio)), Math.max(1, (int) (acceleration*rightRatio)),
+				duration);
+	}
+
+	/**
+	 *  Start a profile on both wheels at the same time
+	 *
+	 * 	@param Profile profile
+	 * 	@param boolean immediateReturn - if false, block until both wheels are done
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void execute(Profile profile, boolean immediateReturn) {
+		leftMotor.setSpeed(profile.leftSpeed);
+		rightMotor.setSpeed(profile.rightSpeed);
+		leftMotor.setAcceleration(profile.leftAcceleration);
+		rightMotor.setAcceleration(profile.rightAcceleration);
+
+		leftMotor.startSynchronization();
+		leftMotor.rotate(profile.leftAngle, true);
+		rightMotor.rotate(profile.rightAngle, true);
+		leftMotor.endSynchronization();
+
+		if (!immediateReturn) {
+			leftMotor.waitComplete();
+			rightMotor.waitComplete();
+		}
+	}
+}
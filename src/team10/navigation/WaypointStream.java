@@ -0,0 +1,194 @@
+package team10.navigation;
+
+/**
+ * Waypoints for Navigation.drive that can be added or refined while the
+ * robot drives. A planner thread pushes them, the navigation pops them as
+ * they are reached. Every change bumps the version so the navigation knows
+ * to pick up the new waypoints
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class WaypointStream {
+	private static final int CAPACITY = 16;
+
+	private double[] points;
+	private int head, count;
+	private int version;
+	private boolean closed;
+
+	/**
+	 *  Constructor, an open stream without waypoints
+	 *
+	 *  @since 1.0
+	 */
+	public WaypointStream() {
+		this.points = new double[2*CAPACITY];
+	}
+
+	/**
+	 *  A closed stream of a fixed path
+	 *
+	 * 	@param double[] path - the waypoints {x0, y0, x1, y1, ...} in cm, a trailing odd coordinate is ignored
+	 *  @return WaypointStream stream
+	 *  @since 1.0
+	 */
+	public static WaypointStream of(double[] path) {
+		WaypointStream stream = new WaypointStream();
+		for (int i = 0; i + 1 < path.length; i += 2)
+			stream.add(path[i], path[i + 1]);
+		stream.close();
+		return stream;
+	}
+
+	/**
+	 *  Add a waypoint after the others
+	 *
+	 * 	@param double x - in cm
+	 * 	@param double y - in cm
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void add(double x, double y) {
+		if (closed)
+			throw new IllegalStateException("Waypoint stream closed");
+		if (count == points.length/2)
+			grow();
+		int index = 2*((head + count) % (points.length/2));
+		points[index] = x;
+		points[index + 1] = y;
+		count++;
+		changed();
+	}
+
+	/**
+	 *  Replace the waypoints not reached yet, including the one the robot is
+	 *  heading to, for a refined plan
+	 *
+	 * 	@param double[] path - the waypoints {x0, y0, x1, y1, ...} in cm
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void replace(double[] path) {
+		if (closed)
+			throw new IllegalStateException("Waypoint stream closed");
+		head = 0;
+		count = 0;
+		if (points.length < path.length)
+			points = new double[path.length + path.length % 2];
+		for (int i = 0; i + 1 < path.length; i += 2) {
+			points[2*count] = path[i];
+			points[2*count + 1] = path[i + 1];
+			count++;
+		}
+		changed();
+	}
+
+	/**
+	 *  No more waypoints, drive returns once the last one is reached
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void close() {
+		closed = true;
+		changed();
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return boolean closed
+	 *  @since 1.0
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return int version - changes with every add, replace, close or reached
+	 *  @since 1.0
+	 */
+	public synchronized int getVersion() {
+		return version;
+	}
+
+	/**
+	 *  Copy the waypoints not reached yet
+	 *
+	 *  @return double[] pending - {x0, y0, x1, y1, ...} in cm
+	 *  @since 1.0
+	 */
+	public synchronized double[] getPending() {
+		double[] pending = new double[2*count];
+		for (int i = 0; i < count; i++) {
+			int index = 2*((head + i) % (points.length/2));
+			pending[2*i] = points[index];
+			pending[2*i + 1] = points[index + 1];
+		}
+		return pending;
+	}
+
+	/**
+	 *  Pop the waypoints the robot has reached, unless they were replaced or
+	 *  popped since the navigation picked them up
+	 *
+	 * 	@param int reached - the number of waypoints
+	 * 	@param int version - the version the waypoints were picked up at
+	 *  @return boolean popped - false if the stream changed, the new waypoints are all still to drive
+	 *  @since 1.0
+	 */
+	public synchronized boolean reached(int reached, int version) {
+		if (this.version != version)
+			return false;
+		reached = Math.min(reached, count);
+		if (reached <= 0)
+			return true;
+		head = (head + reached) % (points.length/2);
+		count -= reached;
+		changed();
+		return true;
+	}
+
+	/**
+	 *  Wait for a change
+	 *
+	 * 	@param int version - the version already seen
+	 * 	@param long timeout - in ms
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public synchronized void waitForChange(int version, long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		long left = timeout;
+		while (this.version == version && left > 0) {
+			try {
+				wait(left);
+			} catch (InterruptedException e) {
+				// give up waiting, the caller checks the version
+				return;
+			}
+			left = deadline - System.currentTimeMillis();
+		}
+	}
+
+	private void grow() {
+		double[] grown = new double[2*points.length];
+		for (int i = 0; i < count; i++) {
+			int index = 2*((head + i) % (points.length/2));
+			grown[2*i] = points[index];
+			grown[2*i + 1] = points[index + 1];
+		}
+		points = grown;
+		head = 0;
+	}
+
+	private void changed() {
+		version++;
+		notifyAll();
+	}
+}
@@ -0,0 +1,107 @@
+package team10.navigation;
+
+/**
+ * Drive wheel motor, the part of the regulated motor used by the odometer and
+ * the navigation
+ *
+ * @author Mathieu Tougas
+ * @version 1.1
+ *
+ */
+
+public interface WheelMotor {
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return int tachoCount - in degrees
+	 *  @since 1.0
+	 */
+	int getTachoCount();
+
+	/**
+	 *  Mutator
+	 *
+	 * 	@param float speed - in deg/s
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void setSpeed(float speed);
+
+	/**
+	 *  Mutator
+	 *
+	 * 	@param int acceleration - in deg/s^2
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void setAcceleration(int acceleration);
+
+	/**
+	 *  Run forward at the set speed
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void forward();
+
+	/**
+	 *  Run backward at the set speed
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void backward();
+
+	/**
+	 *  Stop the motor
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void stop();
+
+	/**
+	 *  Rotate by an angle at the set speed
+	 *
+	 * 	@param int angle - in degrees
+	 * 	@param boolean immediateReturn - if false, block until the rotation is done
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void rotate(int angle, boolean immediateReturn);
+
+	/**
+	 *  Block until the current rotation is done
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	void waitComplete();
+
+	/**
+	 *  Pair this motor with another one, the commands given between
+	 *  startSynchronization and endSynchronization start on both together
+	 *
+	 * 	@param WheelMotor other - the other wheel
+	 *  @return No return value
+	 *  @since 1.1
+	 */
+	void synchronizeWith(WheelMotor other);
+
+	/**
+	 *  Hold the commands to this motor and the synchronized one
+	 *
+	 *  @return No return value
+	 *  @since 1.1
+	 */
+	void startSynchronization();
+
+	/**
+	 *  Send the held commands to both motors at once
+	 *
+	 *  @return No return value
+	 *  @since 1.1
+	 */
+	void endSynchronization();
+}
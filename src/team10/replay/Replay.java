@@ -0,0 +1,197 @@
+package team10.replay;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import lejos.robotics.SampleProvider;
+import team10.localization.LightLocalizer;
+import team10.localization.USLocalizer;
+import team10.navigation.Clock;
+import team10.navigation.FixedRateScheduler;
+import team10.navigation.Navigation;
+import team10.navigation.Odometer;
+import team10.telemetry.TelemetryLog;
+
+/**
+ * Replays recorded runs through the real localizers on a virtual clock and
+ * scores the final pose. Runs faster than real time, off the robot.
+ * Usage: Replay file.bin|directory...
+ *
+ * A run can have a sidecar file.bin.properties with the starting corner
+ * (corner=1..4) and a measured end pose (truth.x, truth.y in cm, truth.theta
+ * in degrees), otherwise the recorded odometer pose is the reference
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class Replay {
+	private static final double[][] CORNERS = {{Navigation.convertTileToDistance(0), Navigation.convertTileToDistance(0), 0.0},{Navigation.convertTileToDistance(10), Navigation.convertTileToDistance(0), Odometer.getRadAngle(90.0)}, {Navigation.convertTileToDistance(10), Navigation.convertTileToDistance(10), Odometer.getRadAngle(180.0)}, {Navigation.convertTileToDistance(0), Navigation.convertTileToDistance(10), Odometer.getRadAngle(270.0)}};
+	private static final long ODOMETER_PERIOD = 25;
+
+	public static void main(String[] args) {
+		List<File> files = new ArrayList<File>();
+		for (String arg : args)
+			collect(new File(arg), files);
+		if (files.isEmpty()) {
+			System.out.println("Usage: Replay file.bin|directory...");
+			return;
+		}
+
+		long start = System.nanoTime();
+		double totalPosition = 0, totalTheta = 0, maxPosition = 0;
+		int runs = 0;
+
+		System.out.println("Run                       Pos(cm) Th(deg)  Time(s)");
+		for (File file : files) {
+			double[] error;
+			try {
+				error = replay(file);
+			} catch (IOException e) {
+				System.err.println("Error: " + e.getMessage());
+				continue;
+			}
+			System.out.println(String.format("%-25s %7.2f %7.2f %8.1f%s", file.getName(), error[0], error[1], error[2], error[3] == 0 ? " (truncated)" : ""));
+			totalPosition += error[0];
+			totalTheta += error[1];
+			maxPosition = Math.max(maxPosition, error[0]);
+			runs++;
+		}
+
+		if (runs > 0)
+			System.out.println(String.format("%d runs, mean %.2f cm %.2f deg, worst %.2f cm, replayed in %.2f s", runs, totalPosition/runs, totalTheta/runs, maxPosition, (System.nanoTime() - start)/1e9));
+	}
+
+	/**
+	 *  Replay one recorded run
+	 *
+	 * 	@param File file - the telemetry file
+	 *  @return double[] error - {position error (cm), heading error (deg), virtual duration (s), 1 if the localization completed}
+	 *  @throws IOException if the file cannot be read
+	 *  @since 1.0
+	 */
+	public static double[] replay(File file) throws IOException {
+		TelemetryLog log = TelemetryLog.load(file);
+		if (log.getTacho().size() == 0)
+			throw new IOException("No tacho records in " + file);
+		Properties sidecar = loadSidecar(file);
+
+		// The localization starts with the first motor command
+		long start = log.getTacho().getTime(0);
+		if (log.getMotor().size() > 0)
+			start = Math.max(start, log.getMotor().getTime(0) - 1);
+
+		ReplayClock clock = new ReplayClock(log.getTacho(), start);
+		Clock.set(clock);
+		try {
+			ReplayMotor leftMotor = new ReplayMotor(clock, log.getTacho(), true);
+			ReplayMotor rightMotor = new ReplayMotor(clock, log.getTacho(), false);
+			Odometer odometer = new Odometer(leftMotor, rightMotor, ODOMETER_PERIOD, FixedRateScheduler.Policy.SKIP);
+			odometer.setLeftMotorTachoCount(leftMotor.getTachoCount());
+			odometer.setRightMotorTachoCount(rightMotor.getTachoCount());
+			clock.setOdometer(odometer);
+			Navigation navigation = new Navigation(odometer);
+
+			SampleProvider usValue = new ReplaySampleProvider(clock, log.getUltrasonic());
+			SampleProvider leftColorValue = new ReplaySampleProvider(clock, log.getLeftColor());
+			SampleProvider rightColorValue = new ReplaySampleProvider(clock, log.getRightColor());
+			int corner = Integer.parseInt(sidecar.getProperty("corner", "1"));
+			double[] initialPosition = Arrays.copyOf(CORNERS[corner - 1], 3);
+
+			boolean completed = true;
+			try {
+				USLocalizer usl = new USLocalizer(odometer, navigation, usValue, new float[usValue.sampleSize()], USLocalizer.LocalizationType.FALLING_EDGE);
+				usl.doLocalization();
+				LightLocalizer lsl = new LightLocalizer(odometer, navigation, leftColorValue, new float[leftColorValue.sampleSize()], rightColorValue, new float[rightColorValue.sampleSize()]);
+				lsl.doLocalization(initialPosition);
+			} catch (ReplayFinishedException e) {
+				completed = false;
+			}
+
+			double[] reference = new double[3];
+			if (sidecar.containsKey("truth.x")) {
+				reference[0] = Double.parseDouble(sidecar.getProperty("truth.x"));
+				reference[1] = Double.parseDouble(sidecar.getProperty("truth.y"));
+				reference[2] = Odometer.getRadAngle(Double.parseDouble(sidecar.getProperty("truth.theta", "0")));
+			} else {
+				recordedPose(log.getPose(), clock.getTime(), reference);
+			}
+
+			double dx = odometer.getX() - reference[0];
+			double dy = odometer.getY() - reference[1];
+			double dTheta = Math.atan2(Math.sin(odometer.getTheta() - reference[2]), Math.cos(odometer.getTheta() - reference[2]));
+			return new double[] { Math.sqrt(dx*dx + dy*dy), Math.abs(Math.toDegrees(dTheta)), (clock.getTime() - start)/1e9, completed ? 1 : 0 };
+		} finally {
+			Clock.set(null);
+		}
+	}
+
+	/**
+	 *  Recorded odometer pose at a time, the last one recorded before it
+	 *
+	 * 	@param TelemetryLog.Stream pose - the recorded poses
+	 * 	@param long time - in ns
+	 * 	@param double[] reference - filled with {x, y, theta}
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private static void recordedPose(TelemetryLog.Stream pose, long time, double[] reference) {
+		int i = 0;
+		while (i + 1 < pose.size() && pose.getTime(i + 1) <= time)
+			i++;
+		if (pose.size() > 0) {
+			reference[0] = pose.getA(i);
+			reference[1] = pose.getB(i);
+			reference[2] = pose.getC(i);
+		}
+	}
+
+	/**
+	 *  Load the properties written next to a run, if any
+	 *
+	 * 	@param File file - the telemetry file
+	 *  @return Properties sidecar
+	 *  @since 1.0
+	 */
+	private static Properties loadSidecar(File file) {
+		Properties sidecar = new Properties();
+		File properties = new File(file.getPath() + ".properties");
+		if (properties.exists()) {
+			try (FileInputStream in = new FileInputStream(properties)) {
+				sidecar.load(in);
+			} catch (IOException e) {
+				System.err.println("Error: " + e.getMessage());
+			}
+		}
+		return sidecar;
+	}
+
+	/**
+	 *  Add a telemetry file, or every telemetry file in a directory
+	 *
+	 * 	@param File file
+	 * 	@param List<File> files
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private static void collect(File file, List<File> files) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children == null)
+				return;
+			Arrays.sort(children);
+			for (File child : children) {
+				if (child.getName().endsWith(".bin"))
+					files.add(child);
+			}
+		} else {
+			files.add(file);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package team10.replay;
+
+import team10.navigation.Clock;
+import team10.navigation.Odometer;
+import team10.telemetry.TelemetryLog;
+
+/**
+ * Virtual time of a replayed run. Time only moves when the replayed code
+ * waits on a sensor, a motor or the clock, and the odometer is updated at
+ * every recorded tacho sample on the way
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class ReplayClock extends Clock {
+	private static final long NANOS_PER_MILLI = 1000000;
+
+	private final TelemetryLog.Stream tacho;
+	private final long end;
+	private Odometer odometer;
+	private long time;
+	private int nextTick;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param TelemetryLog.Stream tacho - the recorded tacho counts, they set the odometer updates
+	 * 	@param long start - the virtual start time
+	 *  @since 1.0
+	 */
+	public ReplayClock(TelemetryLog.Stream tacho, long start) {
+		this.tacho = tacho;
+		this.end = tacho.size() == 0 ? start : tacho.getTime(tacho.size() - 1);
+		this.time = start;
+		this.nextTick = 0;
+		while (nextTick < tacho.size() && tacho.getTime(nextTick) <= start)
+			nextTick++;
+	}
+
+	/**
+	 *  Mutator
+	 *
+	 * 	@param Odometer odometer - updated at every recorded tacho sample
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void setOdometer(Odometer odometer) {
+		this.odometer = odometer;
+	}
+
+	/**
+	 *  Move the virtual time forward, updating the odometer on the way
+	 *
+	 * 	@param long target - the virtual time to reach
+	 *  @return No return value
+	 *  @throws ReplayFinishedException if the target is past the end of the recording
+	 *  @since 1.0
+	 */
+	public void advanceTo(long target) {
+		boolean finished = target > end;
+		if (finished)
+			target = end;
+
+		while (nextTick < tacho.size() && tacho.getTime(nextTick) <= target) {
+			time = tacho.getTime(nextTick);
+			nextTick++;
+			if (odometer != null)
+				odometer.update();
+		}
+		if (target > time)
+			time = target;
+
+		if (finished)
+			throw new ReplayFinishedException();
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long time - the next recorded tacho time, the end of the recording if there is none
+	 *  @since 1.0
+	 */
+	public long getNextTickTime() {
+		if (nextTick < tacho.size())
+			return tacho.getTime(nextTick);
+		return end + 1;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long time - the current virtual time in ns
+	 *  @since 1.0
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	protected long now() {
+		return time;
+	}
+
+	protected void pause(long millis) {
+		advanceTo(time + millis*NANOS_PER_MILLI);
+	}
+}
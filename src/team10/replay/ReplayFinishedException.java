@@ -0,0 +1,22 @@
+package team10.replay;
+
+/**
+ * Thrown when the replayed code waits past the end of the recording
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class ReplayFinishedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 *  Constructor
+	 *
+	 *  @since 1.0
+	 */
+	public ReplayFinishedException() {
+		super("End of the recording");
+	}
+}
@@ -0,0 +1,157 @@
+package team10.replay;
+
+import team10.navigation.WheelMotor;
+import team10.telemetry.TelemetryLog;
+
+/**
+ * In-memory wheel motor playing back the recorded tacho counts. Commands
+ * only take time, a blocking rotation waits until the recorded wheel has
+ * turned by the requested angle or stopped moving
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class ReplayMotor implements WheelMotor {
+	private static final long COMMAND_TIME = 1000000;
+	private static final long IDLE_TIME = 100000000;
+	private static final long ROTATE_TIMEOUT = 10000000000L;
+	private static final int ROTATE_TOLERANCE = 2;
+
+	private final ReplayClock clock;
+	private final TelemetryLog.Stream tacho;
+	private final boolean left;
+	private int cursor;
+	private int rotateStart, rotateAngle;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param ReplayClock clock
+	 * 	@param TelemetryLog.Stream tacho - the recorded tacho counts
+	 * 	@param boolean left - true to play the left motor, false for the right one
+	 *  @since 1.0
+	 */
+	public ReplayMotor(ReplayClock clock, TelemetryLog.Stream tacho, boolean left) {
+		this.clock = clock;
+		this.tacho = tacho;
+		this.left = left;
+		this.cursor = 0;
+	}
+
+	/**
+	 *  Recorded tacho count at the current virtual time, interpolated
+	 *
+	 *  @return int tachoCount - in degrees
+	 *  @since 1.0
+	 */
+	public int getTachoCount() {
+		if (tacho.size() == 0)
+			return 0;
+
+		long time = clock.getTime();
+		while (cursor + 1 < tacho.size() && tacho.getTime(cursor + 1) <= time)
+			cursor++;
+
+		double current = value(cursor);
+		if (cursor + 1 >= tacho.size() || tacho.getTime(cursor) >= time)
+			return (int) Math.round(current);
+
+		double next = value(cursor + 1);
+		double f = (double) (time - tacho.getTime(cursor))/(tacho.getTime(cursor + 1) - tacho.getTime(cursor));
+		return (int) Math.round(current + f*(next - current));
+	}
+
+	public void setSpeed(float speed) {
+		command();
+	}
+
+	public void setAcceleration(int acceleration) {
+		command();
+	}
+
+	public void forward() {
+		command();
+	}
+
+	public void backward() {
+		command();
+	}
+
+	public void stop() {
+		command();
+		waitIdle(0);
+	}
+
+	public void rotate(int angle, boolean immediateReturn) {
+		command();
+		rotateStart = getTachoCount();
+		rotateAngle = angle;
+		if (!immediateReturn)
+			waitComplete();
+	}
+
+	public void waitComplete() {
+		waitIdle(Math.abs(rotateAngle) - ROTATE_TOLERANCE);
+	}
+
+	public void synchronizeWith(WheelMotor other) {
+		// nothing to do, the recording already has both wheels
+	}
+
+	public void startSynchronization() {
+		// nothing to do, the recording already has both wheels
+	}
+
+	public void endSynchronization() {
+		command();
+	}
+
+	/**
+	 *  Advance the time until the wheel turned by an angle or stopped moving
+	 *
+	 * 	@param int angle - in degrees, 0 to wait for the wheel to stop
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void waitIdle(int angle) {
+		long start = clock.getTime();
+		long lastMove = start;
+		int last = getTachoCount();
+
+		while (clock.getTime() - start < ROTATE_TIMEOUT) {
+			clock.advanceTo(clock.getNextTickTime());
+			int current = getTachoCount();
+			if (current != last)
+				lastMove = clock.getTime();
+			last = current;
+
+			if (angle > 0 && Math.abs(current - rotateStart) >= angle)
+				return;
+			if (clock.getTime() - lastMove >= IDLE_TIME)
+				return;
+		}
+	}
+
+	/**
+	 *  A motor command takes a little time on the brick
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void command() {
+		clock.advanceTo(clock.getTime() + COMMAND_TIME);
+	}
+
+	/**
+	 *  Recorded tacho count of this motor
+	 *
+	 * 	@param int i - the record index
+	 *  @return double tachoCount
+	 *  @since 1.0
+	 */
+	private double value(int i) {
+		return left ? tacho.getA(i) : tacho.getB(i);
+	}
+}
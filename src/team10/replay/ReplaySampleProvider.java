@@ -0,0 +1,48 @@
+package team10.replay;
+
+import lejos.robotics.SampleProvider;
+import team10.telemetry.TelemetryLog;
+
+/**
+ * In-memory sensor playing back recorded samples. Every fetch waits for the
+ * next recorded sample, so the replayed loops see the same sample rate
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class ReplaySampleProvider implements SampleProvider {
+	private final ReplayClock clock;
+	private final TelemetryLog.Stream samples;
+	private int cursor;
+
+	/**
+	 *  Constructor
+	 *
+	 * 	@param ReplayClock clock
+	 * 	@param TelemetryLog.Stream samples - the recorded raw samples
+	 *  @since 1.0
+	 */
+	public ReplaySampleProvider(ReplayClock clock, TelemetryLog.Stream samples) {
+		this.clock = clock;
+		this.samples = samples;
+		this.cursor = 0;
+	}
+
+	public int sampleSize() {
+		return 1;
+	}
+
+	public void fetchSample(float[] sample, int offset) {
+		long time = clock.getTime();
+		while (cursor < samples.size() && samples.getTime(cursor) < time)
+			cursor++;
+		if (cursor >= samples.size())
+			throw new ReplayFinishedException();
+
+		clock.advanceTo(samples.getTime(cursor));
+		sample[offset] = (float) samples.getA(cursor);
+		cursor++;
+	}
+}
@@ -0,0 +1,197 @@
+package team10.telemetry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads a file written by the TelemetryRecorder, the records are split by
+ * type into primitive arrays ordered by time
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class TelemetryLog {
+	private final Stream tacho = new Stream();
+	private final Stream pose = new Stream();
+	private final Stream ultrasonic = new Stream();
+	private final Stream leftColor = new Stream();
+	private final Stream rightColor = new Stream();
+	private final Stream motor = new Stream();
+
+	/**
+	 *  Load a telemetry file
+	 *
+	 * 	@param File file
+	 *  @return TelemetryLog log
+	 *  @throws IOException if the file is not a telemetry file
+	 *  @since 1.0
+	 */
+	public static TelemetryLog load(File file) throws IOException {
+		TelemetryLog log = new TelemetryLog();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != TelemetryRecorder.MAGIC || in.readInt() != TelemetryRecorder.RECORD_SIZE)
+				throw new IOException("Not a telemetry file: " + file);
+			long count = in.readLong();
+
+			for (long i = 0; i < count; i++) {
+				long time = in.readLong();
+				int type = in.readInt();
+				int channel = in.readInt();
+				double a = in.readDouble();
+				double b = in.readDouble();
+				double c = in.readDouble();
+
+				switch (type) {
+				case TelemetryRecorder.TACHO:
+					log.tacho.add(time, channel, a, b, c);
+					break;
+				case TelemetryRecorder.POSE:
+					log.pose.add(time, channel, a, b, c);
+					break;
+				case TelemetryRecorder.ULTRASONIC:
+					log.ultrasonic.add(time, channel, a, b, c);
+					break;
+				case TelemetryRecorder.COLOR:
+					if (channel == TelemetryRecorder.LEFT)
+						log.leftColor.add(time, channel, a, b, c);
+					else
+						log.rightColor.add(time, channel, a, b, c);
+					break;
+				case TelemetryRecorder.MOTOR:
+					log.motor.add(time, channel, a, b, c);
+					break;
+				}
+			}
+		} catch (EOFException e) {
+			// truncated file, keep the complete records
+		} finally {
+			in.close();
+		}
+		return log;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return Stream tacho - a = left tacho count, b = right tacho count
+	 *  @since 1.0
+	 */
+	public Stream getTacho() {
+		return tacho;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return Stream pose - a = x, b = y, c = theta
+	 *  @since 1.0
+	 */
+	public Stream getPose() {
+		return pose;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return Stream ultrasonic - a = raw sample
+	 *  @since 1.0
+	 */
+	public Stream getUltrasonic() {
+		return ultrasonic;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return Stream leftColor - a = raw sample
+	 *  @since 1.0
+	 */
+	public Stream getLeftColor() {
+		return leftColor;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return Stream rightColor - a = raw sample
+	 *  @since 1.0
+	 */
+	public Stream getRightColor() {
+		return rightColor;
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return Stream motor - channel SPEEDS, ROTATE, TURN or HEADING, see TelemetryRecorder.recordMotor
+	 *  @since 1.0
+	 */
+	public Stream getMotor() {
+		return motor;
+	}
+
+	/**
+	 * Records of one type, growable primitive arrays
+	 */
+	public static class Stream {
+		private long[] times = new long[256];
+		private int[] channels = new int[256];
+		private double[] as = new double[256], bs = new double[256], cs = new double[256];
+		private int size;
+
+		/**
+		 *  Append a record
+		 *
+		 *  @return No return value
+		 *  @since 1.0
+		 */
+		private void add(long time, int channel, double a, double b, double c) {
+			if (size == times.length) {
+				int capacity = size*2;
+				times = Arrays.copyOf(times, capacity);
+				channels = Arrays.copyOf(channels, capacity);
+				as = Arrays.copyOf(as, capacity);
+				bs = Arrays.copyOf(bs, capacity);
+				cs = Arrays.copyOf(cs, capacity);
+			}
+			times[size] = time;
+			channels[size] = channel;
+			as[size] = a;
+			bs[size] = b;
+			cs[size] = c;
+			size++;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long getTime(int i) {
+			return times[i];
+		}
+
+		public int getChannel(int i) {
+			return channels[i];
+		}
+
+		public double getA(int i) {
+			return as[i];
+		}
+
+		public double getB(int i) {
+			return bs[i];
+		}
+
+		public double getC(int i) {
+			return cs[i];
+		}
+	}
+}
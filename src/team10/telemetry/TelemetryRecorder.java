@@ -0,0 +1,337 @@
+package team10.telemetry;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records fixed-width binary telemetry records. The producers copy their
+ * samples into a preallocated ring, a background thread flushes the ring into
+ * a memory-mapped file. Nothing is allocated per sample
+ *
+ * Record layout (40 bytes, big endian): long nanoTime, int type, int channel,
+ * double a, double b, double c. The file starts with a 16 bytes header: int
+ * MAGIC, int RECORD_SIZE, long number of records
+ *
+ * @author Mathieu Tougas
+ * @version 1.0
+ *
+ */
+
+public class TelemetryRecorder extends Thread {
+	public static final int MAGIC = 0x54313054;
+	public static final int HEADER_SIZE = 16;
+	public static final int RECORD_SIZE = 40;
+
+	// record types
+	public static final int TACHO = 1;
+	public static final int POSE = 2;
+	public static final int ULTRASONIC = 3;
+	public static final int COLOR = 4;
+	public static final int MOTOR = 5;
+
+	// record channels
+	public static final int LEFT = 0;
+	public static final int RIGHT = 1;
+	public static final int SPEEDS = 0;
+	public static final int ROTATE = 1;
+	public static final int TURN = 2;
+	public static final int HEADING = 3;
+
+	private static final int CAPACITY = 4096;
+	private static final int MAX_RECORDS = 200000;
+	private static final long FLUSH_PERIOD = 100;
+	private static final int FORCE_EVERY = 10;
+
+	private static volatile TelemetryRecorder recorder;
+
+	// ring, a slot is readable when its commit mark is its sequence + 1
+	private final long[] times = new long[CAPACITY];
+	private final int[] types = new int[CAPACITY];
+	private final int[] channels = new int[CAPACITY];
+	private final double[] as = new double[CAPACITY];
+	private final double[] bs = new double[CAPACITY];
+	private final double[] cs = new double[CAPACITY];
+	private final AtomicLongArray commits = new AtomicLongArray(CAPACITY);
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile long tail;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private long written;
+	private volatile boolean running;
+
+	/**
+	 *  Constructor, maps the output file
+	 *
+	 * 	@param File output
+	 *  @throws IOException
+	 *  @since 1.0
+	 */
+	private TelemetryRecorder(File output) throws IOException {
+		this.file = new RandomAccessFile(output, "rw");
+		this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) MAX_RECORDS*RECORD_SIZE);
+		this.buffer.putInt(0, MAGIC);
+		this.buffer.putInt(4, RECORD_SIZE);
+		this.buffer.putLong(8, 0);
+		this.written = 0;
+		this.running = true;
+		setDaemon(true);
+		setPriority(Thread.MIN_PRIORITY);
+	}
+
+	/**
+	 *  Start recording into a file, replaces any running recorder
+	 *
+	 * 	@param File output
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static synchronized void start(File output) {
+		stopRecording();
+		try {
+			TelemetryRecorder started = new TelemetryRecorder(output);
+			started.start();
+			recorder = started;
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 *  Start recording into a new file of a directory named after the start
+	 *  time, and delete the oldest recordings so the flash only holds the
+	 *  last few runs
+	 *
+	 * 	@param File directory
+	 * 	@param String prefix - of the file names
+	 * 	@param int keep - the number of recordings kept, this one included
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static synchronized void startRotating(File directory, final String prefix, int keep) {
+		File[] old = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(prefix) && name.endsWith(".bin");
+			}
+		});
+		if (old != null && old.length >= keep) {
+			Arrays.sort(old, new Comparator<File>() {
+				public int compare(File a, File b) {
+					return Long.compare(a.lastModified(), b.lastModified());
+				}
+			});
+			for (int i = 0; i <= old.length - keep; i++) {
+				if (!old[i].delete())
+					System.err.println("Error: could not delete " + old[i].getName());
+				new File(old[i].getPath() + ".properties").delete();
+			}
+		}
+		start(new File(directory, prefix + System.currentTimeMillis() + ".bin"));
+	}
+
+	/**
+	 *  Stop recording, flush the remaining records and close the file
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static synchronized void stopRecording() {
+		TelemetryRecorder stopped = recorder;
+		if (stopped == null)
+			return;
+		recorder = null;
+		stopped.running = false;
+		try {
+			stopped.join();
+		} catch (InterruptedException e) {
+			// nothing to do, the flusher closes the file by itself
+		}
+	}
+
+	/**
+	 *  Record the tacho counts
+	 *
+	 * 	@param int left - left motor tacho count
+	 * 	@param int right - right motor tacho count
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static void recordTacho(int left, int right) {
+		record(TACHO, 0, left, right, 0);
+	}
+
+	/**
+	 *  Record the odometer position
+	 *
+	 * 	@param double x
+	 * 	@param double y
+	 * 	@param double theta - in rads
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static void recordPose(double x, double y, double theta) {
+		record(POSE, 0, x, y, theta);
+	}
+
+	/**
+	 *  Record a raw ultrasonic sample
+	 *
+	 * 	@param float sample - as returned by the sensor
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static void recordUltrasonic(float sample) {
+		record(ULTRASONIC, 0, sample, 0, 0);
+	}
+
+	/**
+	 *  Record a raw colour sample
+	 *
+	 * 	@param int channel - LEFT or RIGHT
+	 * 	@param float sample - as returned by the sensor
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static void recordColor(int channel, float sample) {
+		record(COLOR, channel, sample, 0, 0);
+	}
+
+	/**
+	 *  Record a motor command
+	 *
+	 * 	@param int channel - SPEEDS (a, b = speeds), ROTATE (a, b = angles, c = speed) TURN (a = time in ms, b = final error in degrees, c = settled ticks) or HEADING (a = mean error, b = max error in degrees, c = samples of a travelTo segment)
+	 * 	@param double left
+	 * 	@param double right
+	 * 	@param double speed
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static void recordMotor(int channel, double left, double right, double speed) {
+		record(MOTOR, channel, left, right, speed);
+	}
+
+	/**
+	 *  Record a sample, dropped if the recorder is off or the ring is full
+	 *
+	 * 	@param int type
+	 * 	@param int channel
+	 * 	@param double a
+	 * 	@param double b
+	 * 	@param double c
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public static void record(int type, int channel, double a, double b, double c) {
+		TelemetryRecorder current = recorder;
+		if (current != null)
+			current.append(System.nanoTime(), type, channel, a, b, c);
+	}
+
+	/**
+	 *  Accessor
+	 *
+	 *  @return long dropped - the records lost because the ring or the file was full
+	 *  @since 1.0
+	 */
+	public static long getDropped() {
+		TelemetryRecorder current = recorder;
+		return current == null ? 0 : current.dropped.get();
+	}
+
+	/**
+	 *  Claim a slot and copy the record into the ring
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void append(long time, int type, int channel, double a, double b, double c) {
+		long sequence;
+		do {
+			sequence = head.get();
+			if (sequence - tail >= CAPACITY) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!head.compareAndSet(sequence, sequence + 1));
+
+		int slot = (int) (sequence%CAPACITY);
+		times[slot] = time;
+		types[slot] = type;
+		channels[slot] = channel;
+		as[slot] = a;
+		bs[slot] = b;
+		cs[slot] = c;
+		commits.lazySet(slot, sequence + 1);
+	}
+
+	/**
+	 *  Flush the ring into the mapped file until stopped
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	public void run() {
+		int flushes = 0;
+		while (running) {
+			flush();
+			if (++flushes%FORCE_EVERY == 0)
+				buffer.force();
+			try {
+				Thread.sleep(FLUSH_PERIOD);
+			} catch (InterruptedException e) {
+				// nothing to do, flush again
+			}
+		}
+
+		// last records, then cut the file to them and close it
+		flush();
+		buffer.force();
+		try {
+			file.setLength(HEADER_SIZE + written*RECORD_SIZE);
+			file.close();
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 *  Copy the committed records into the mapped file
+	 *
+	 *  @return No return value
+	 *  @since 1.0
+	 */
+	private void flush() {
+		long next = tail;
+		while (true) {
+			int slot = (int) (next%CAPACITY);
+			if (commits.get(slot) != next + 1)
+				break;
+
+			if (written < MAX_RECORDS) {
+				int position = HEADER_SIZE + (int) written*RECORD_SIZE;
+				buffer.putLong(position, times[slot]);
+				buffer.putInt(position + 8, types[slot]);
+				buffer.putInt(position + 12, channels[slot]);
+				buffer.putDouble(position + 16, as[slot]);
+				buffer.putDouble(position + 24, bs[slot]);
+				buffer.putDouble(position + 32, cs[slot]);
+				written++;
+			}
+			else {
+				dropped.incrementAndGet();
+			}
+			next++;
+			tail = next;
+		}
+		buffer.putLong(8, written);
+	}
+}